@@ -18,6 +18,7 @@ plugins {
     `java-gradle-plugin`
     idea
     `maven-publish`
+    id("me.champeau.gradle.jmh") version "0.5.3"
 }
 
 group = "me.ramidzkh"
@@ -74,6 +75,14 @@ java {
     targetCompatibility = JavaVersion.VERSION_1_8
 }
 
+// The benchmarks generate their inputs locally, so they run offline. Pass -PjmhInclude=<regex> to run only some of
+// them, e.g. -PjmhInclude=TinyBenchmark
+jmh {
+    jmhVersion = "1.27"
+    include = listOf(project.findProperty("jmhInclude")?.toString() ?: ".*")
+    resultFormat = "JSON"
+}
+
 tasks.withType<Wrapper> {
     gradleVersion = "4.10.3"
     distributionType = Wrapper.DistributionType.ALL
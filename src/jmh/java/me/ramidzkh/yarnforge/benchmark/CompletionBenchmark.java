@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.benchmark;
+
+import me.ramidzkh.yarnforge.util.CompactMappings;
+import me.ramidzkh.yarnforge.util.ConcurrentCascadingInheritanceProvider;
+import me.ramidzkh.yarnforge.util.FileCache;
+import me.ramidzkh.yarnforge.util.HierarchyIndex;
+import me.ramidzkh.yarnforge.util.MappingBridge;
+import me.ramidzkh.yarnforge.util.MappingJoin;
+import net.fabricmc.mapping.tree.TinyMappingFactory;
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.io.MappingFormats;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completing the MCP mappings with inherited members over the class hierarchy of a jar, and joining them with the
+ * Tiny mappings
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompletionBenchmark {
+
+    @Param({"1000", "10000"})
+    public int classes;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path directory;
+    private Path tsrg;
+    private FileCache hierarchies;
+    private InheritanceProvider provider;
+    private CompactMappings obfToYarn;
+    private MappingSet completed;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("yarnforge-jmh");
+        tsrg = directory.resolve("joined.tsrg");
+        Path tiny = directory.resolve("mappings.tiny");
+        Path jar = directory.resolve("merged.jar");
+        Synthetic.writeTsrg(tsrg, classes);
+        Synthetic.writeTiny(tiny, classes);
+        Synthetic.writeJar(jar, classes);
+
+        hierarchies = new FileCache(directory.resolve("hierarchies"), Long.MAX_VALUE);
+        provider = createProvider(jar);
+
+        try (BufferedReader reader = Files.newBufferedReader(tiny)) {
+            obfToYarn = CompactMappings.of(TinyMappingFactory.loadWithDetection(reader), "official", "named");
+        }
+
+        completed = readTsrg();
+        MappingBridge.complete(completed, provider);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Synthetic.delete(directory);
+    }
+
+    @Benchmark
+    public HierarchyIndex index() throws IOException {
+        // The per-jar index is cached after the first invocation, so this measures loading and merging it
+        return HierarchyIndex.create(hierarchies, Collections.singletonList(directory.resolve("merged.jar").toFile()), threads);
+    }
+
+    @Benchmark
+    public MappingSet complete(Copy copy) {
+        MappingBridge.complete(copy.obfToSrg, provider);
+        return copy.obfToSrg;
+    }
+
+    @Benchmark
+    public MappingSet join() {
+        return MappingJoin.join(obfToYarn, completed, provider);
+    }
+
+    private InheritanceProvider createProvider(Path jar) throws IOException {
+        return new ConcurrentCascadingInheritanceProvider()
+                .install(HierarchyIndex.create(hierarchies, Collections.singletonList(jar.toFile()), threads))
+                .install(HierarchyIndex.createJdk(hierarchies));
+    }
+
+    private MappingSet readTsrg() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(tsrg)) {
+            return MappingFormats.TSRG.createReader(reader).read();
+        }
+    }
+
+    /**
+     * A copy of the SRG mappings of its own for every invocation, for the benchmarks which change it. Kept apart, so
+     * the other benchmarks are not timed per invocation
+     */
+    @State(Scope.Thread)
+    public static class Copy {
+
+        private MappingSet obfToSrg;
+
+        @Setup(Level.Invocation)
+        public void read(CompletionBenchmark benchmark) throws IOException {
+            // Completion adds to the mappings, so every invocation needs its own copy
+            obfToSrg = benchmark.readTsrg();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.benchmark;
+
+import me.ramidzkh.yarnforge.util.MappingBridge;
+import net.minecraftforge.gradle.common.util.McpNames;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.io.MappingFormats;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the MCP TSRG mappings and merging the MCP names into them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class McpBenchmark {
+
+    @Param({"1000", "10000"})
+    public int classes;
+
+    private Path directory;
+    private Path tsrg;
+    private Path names;
+    private McpNames mcpNames;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("yarnforge-jmh");
+        tsrg = directory.resolve("joined.tsrg");
+        names = directory.resolve("mcp.zip");
+        Synthetic.writeTsrg(tsrg, classes);
+        Synthetic.writeMcpNames(names, classes);
+        mcpNames = loadNames();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Synthetic.delete(directory);
+    }
+
+    @Benchmark
+    public MappingSet readTsrg() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(tsrg)) {
+            return MappingFormats.TSRG.createReader(reader).read();
+        }
+    }
+
+    @Benchmark
+    public McpNames loadNames() throws IOException {
+        return McpNames.load(names.toFile());
+    }
+
+    @Benchmark
+    public MappingSet mergeMcpNames(Copy copy) {
+        return MappingBridge.mergeMcpNames(copy.obfToSrg, mcpNames);
+    }
+
+    /**
+     * The SRG mappings {@link #mergeMcpNames(Copy)} renames, read again before each invocation. Only that benchmark
+     * pays for setting up per invocation
+     */
+    @State(Scope.Thread)
+    public static class Copy {
+
+        private MappingSet obfToSrg;
+
+        @Setup(Level.Invocation)
+        public void read(McpBenchmark benchmark) throws IOException {
+            // Merging renames in place, so every invocation needs its own copy
+            obfToSrg = benchmark.readTsrg();
+        }
+    }
+}
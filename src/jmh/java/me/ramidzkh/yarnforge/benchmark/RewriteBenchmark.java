@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.benchmark;
+
+import me.ramidzkh.yarnforge.patch.YarnForgeRewriter;
+import org.cadixdev.mercury.Mercury;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewriting a source tree with the Forge specific rewriter alone, without any mappings. This is the parse and binding
+ * cost every pass pays, plus the <code>@OnlyIn</code> rewrite
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RewriteBenchmark {
+
+    @Param({"100", "1000"})
+    public int files;
+
+    private Path directory;
+    private Path input;
+    private Path output;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("yarnforge-jmh");
+        input = directory.resolve("input");
+        output = directory.resolve("output");
+        Synthetic.writeSources(input, files);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Synthetic.delete(directory);
+    }
+
+    @Benchmark
+    public void onlyIn() throws Exception {
+        Mercury mercury = new Mercury();
+        mercury.getProcessors().add(new YarnForgeRewriter());
+        mercury.rewrite(input, output);
+    }
+}
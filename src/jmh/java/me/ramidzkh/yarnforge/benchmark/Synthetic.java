@@ -0,0 +1,317 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.benchmark;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates Minecraft-like inputs locally, so the benchmarks need neither the network nor a Minecraft install.
+ * <p>
+ * Class <code>i</code> extends class <code>(i - 1) / 2</code>, so the hierarchy is a deep, wide tree. Every class
+ * overrides the same few methods, which is what makes completion expensive, and declares a few of its own. The
+ * obfuscated, intermediary, SRG and named names of every member line up between the generated files
+ */
+public class Synthetic {
+
+    public static final int FIELDS = 8;
+    public static final int SHARED_METHODS = 4;
+    public static final int METHODS = 8;
+
+    /**
+     * Writes Tiny v2 mappings from the <code>official</code> to the <code>intermediary</code> and <code>named</code>
+     * namespaces
+     *
+     * @param path    The file to write to
+     * @param classes The number of classes
+     */
+    public static void writeTiny(Path path, int classes) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            writer.write("tiny\t2\t0\tofficial\tintermediary\tnamed\n");
+
+            for (int i = 0; i < classes; i++) {
+                writer.write("c\t" + obf(i) + "\tnet/minecraft/class_" + i + "\tnet/minecraft/" + pkg(i) + "/Class" + i + "\n");
+
+                for (int j = 0; j < FIELDS; j++) {
+                    writer.write("\tf\t" + fieldDescriptor(i, j) + "\t" + obf(j) + "\tfield_" + (i * FIELDS + j) + "\tfield" + i + "_" + j + "\n");
+                }
+
+                for (int j = 0; j < METHODS; j++) {
+                    int id = methodId(i, j);
+                    writer.write("\tm\t" + methodDescriptor(i, j) + "\t" + obf(j) + "\tmethod_" + id + "\tmethod" + id + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes TSRG mappings from the obfuscated names to SRG names, as found in an MCP config
+     *
+     * @param path    The file to write to
+     * @param classes The number of classes
+     */
+    public static void writeTsrg(Path path, int classes) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            for (int i = 0; i < classes; i++) {
+                writer.write(obf(i) + " net/minecraft/" + pkg(i) + "/Srg" + i + "\n");
+
+                for (int j = 0; j < FIELDS; j++) {
+                    writer.write("\t" + obf(j) + " field_" + (i * FIELDS + j) + "_" + obf(j) + "\n");
+                }
+
+                for (int j = 0; j < METHODS; j++) {
+                    writer.write("\t" + obf(j) + " " + methodDescriptor(i, j) + " func_" + methodId(i, j) + "_" + obf(j) + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an MCP names archive, with <code>fields.csv</code> and <code>methods.csv</code> naming every SRG member
+     * written by {@link #writeTsrg(Path, int)}
+     *
+     * @param path    The archive to write to
+     * @param classes The number of classes
+     */
+    public static void writeMcpNames(Path path, int classes) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(path))) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+
+            zip.putNextEntry(new ZipEntry("fields.csv"));
+            writer.write("searge,name,side,desc\n");
+
+            for (int i = 0; i < classes; i++) {
+                for (int j = 0; j < FIELDS; j++) {
+                    writer.write("field_" + (i * FIELDS + j) + "_" + obf(j) + ",mcpField" + i + "_" + j + ",2,\n");
+                }
+            }
+
+            writer.flush();
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry("methods.csv"));
+            writer.write("searge,name,side,desc\n");
+
+            for (int i = 0; i < classes; i++) {
+                for (int j = i == 0 ? 0 : SHARED_METHODS; j < METHODS; j++) {
+                    int id = methodId(i, j);
+                    writer.write("func_" + id + "_" + obf(j) + ",mcpMethod" + id + ",2,\n");
+                }
+            }
+
+            writer.flush();
+            zip.closeEntry();
+        }
+    }
+
+    /**
+     * Writes a jar of obfuscated classes matching the mappings
+     *
+     * @param path    The jar to write to
+     * @param classes The number of classes
+     */
+    public static void writeJar(Path path, int classes) throws IOException {
+        try (OutputStream output = Files.newOutputStream(path); ZipOutputStream zip = new ZipOutputStream(output)) {
+            for (int i = 0; i < classes; i++) {
+                ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+                writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, obf(i), null, i == 0 ? "java/lang/Object" : obf(parent(i)), null);
+
+                for (int j = 0; j < FIELDS; j++) {
+                    writer.visitField(Opcodes.ACC_PUBLIC, obf(j), fieldDescriptor(i, j), null, null).visitEnd();
+                }
+
+                MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+                init.visitCode();
+                init.visitVarInsn(Opcodes.ALOAD, 0);
+                init.visitMethodInsn(Opcodes.INVOKESPECIAL, i == 0 ? "java/lang/Object" : obf(parent(i)), "<init>", "()V", false);
+                init.visitInsn(Opcodes.RETURN);
+                init.visitMaxs(0, 0);
+                init.visitEnd();
+
+                for (int j = 0; j < METHODS; j++) {
+                    String descriptor = methodDescriptor(i, j);
+                    MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, obf(j), descriptor, null, null);
+                    method.visitCode();
+
+                    if (descriptor.endsWith("V")) {
+                        method.visitInsn(Opcodes.RETURN);
+                    } else {
+                        method.visitInsn(Opcodes.ACONST_NULL);
+                        method.visitInsn(Opcodes.ARETURN);
+                    }
+
+                    method.visitMaxs(0, 0);
+                    method.visitEnd();
+                }
+
+                writer.visitEnd();
+                zip.putNextEntry(new ZipEntry(obf(i) + ".class"));
+                zip.write(writer.toByteArray());
+                zip.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Writes a Forge-like source tree. Every fourth class is <code>@OnlyIn</code>, every eighth one also has an
+     * <code>@OnlyIn</code> interface, and every class has some annotations which are not rewritten
+     *
+     * @param root  The source root to write to
+     * @param files The number of source files
+     */
+    public static void writeSources(Path root, int files) throws IOException {
+        Path distmarker = root.resolve("net/minecraftforge/api/distmarker");
+        Files.createDirectories(distmarker);
+
+        Files.write(distmarker.resolve("Dist.java"), lines(
+                "package net.minecraftforge.api.distmarker;",
+                "public enum Dist { CLIENT, DEDICATED_SERVER }"
+        ));
+        Files.write(distmarker.resolve("OnlyIn.java"), lines(
+                "package net.minecraftforge.api.distmarker;",
+                "import java.lang.annotation.*;",
+                "@Retention(RetentionPolicy.CLASS)",
+                "@Repeatable(OnlyIns.class)",
+                "public @interface OnlyIn { Dist value(); Class<?> _interface() default Object.class; }"
+        ));
+        Files.write(distmarker.resolve("OnlyIns.java"), lines(
+                "package net.minecraftforge.api.distmarker;",
+                "import java.lang.annotation.*;",
+                "@Retention(RetentionPolicy.CLASS)",
+                "public @interface OnlyIns { OnlyIn[] value(); }"
+        ));
+
+        for (int i = 0; i < files; i++) {
+            String pkg = "com/example/" + pkg(i);
+            Path directory = root.resolve(pkg);
+            Files.createDirectories(directory);
+
+            StringBuilder source = new StringBuilder();
+            source.append("package ").append(pkg.replace('/', '.')).append(";\n\n");
+            source.append("import java.util.List;\n");
+            source.append("import net.minecraftforge.api.distmarker.Dist;\n");
+            source.append("import net.minecraftforge.api.distmarker.OnlyIn;\n\n");
+
+            if (i % 8 == 0) {
+                source.append("@OnlyIn(value = Dist.CLIENT, _interface = Runnable.class)\n");
+            }
+
+            source.append("public class Source").append(i).append(i % 8 == 0 ? " implements Runnable" : "").append(" {\n\n");
+
+            for (int j = 0; j < FIELDS; j++) {
+                source.append("    @Deprecated\n");
+                source.append("    private List<String> field").append(j).append(";\n\n");
+            }
+
+            for (int j = 0; j < METHODS; j++) {
+                if (i % 4 == 0 && j % 2 == 0) {
+                    source.append("    @OnlyIn(Dist.CLIENT)\n");
+                }
+
+                source.append("    @SuppressWarnings(\"unused\")\n");
+                source.append("    public int method").append(j).append("(int value) {\n");
+                source.append("        return field").append(j % FIELDS).append(" == null ? value : field").append(j % FIELDS).append(".size() + value;\n");
+                source.append("    }\n\n");
+            }
+
+            if (i % 8 == 0) {
+                source.append("    @Override\n");
+                source.append("    public void run() {\n");
+                source.append("    }\n");
+            }
+
+            source.append("}\n");
+            Files.write(directory.resolve("Source" + i + ".java"), source.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Deletes a directory and everything in it
+     *
+     * @param directory The directory
+     */
+    public static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+
+        List<Path> paths;
+
+        try (Stream<Path> stream = Files.walk(directory)) {
+            paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    private static byte[] lines(String... lines) {
+        return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int parent(int klass) {
+        return (klass - 1) / 2;
+    }
+
+    private static String pkg(int klass) {
+        return "p" + (klass % 32);
+    }
+
+    private static int methodId(int klass, int method) {
+        // Overrides share the name of the method they override
+        return method < SHARED_METHODS ? method : klass * METHODS + method;
+    }
+
+    private static String fieldDescriptor(int klass, int field) {
+        return field % 2 == 0 ? "I" : "L" + obf(klass == 0 ? 0 : parent(klass)) + ";";
+    }
+
+    private static String methodDescriptor(int klass, int method) {
+        return method < SHARED_METHODS ? "()V" : "(L" + obf(klass) + ";I)L" + obf(klass == 0 ? 0 : parent(klass)) + ";";
+    }
+
+    /**
+     * Names things the way ProGuard does: <code>a</code> to <code>z</code>, then <code>aa</code> and so on
+     */
+    static String obf(int index) {
+        StringBuilder name = new StringBuilder();
+
+        do {
+            name.insert(0, (char) ('a' + index % 26));
+            index = index / 26 - 1;
+        } while (index >= 0);
+
+        return name.toString();
+    }
+}
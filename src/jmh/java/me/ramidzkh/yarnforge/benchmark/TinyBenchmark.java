@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.benchmark;
+
+import me.ramidzkh.yarnforge.util.CompactMappings;
+import me.ramidzkh.yarnforge.util.MappingBridge;
+import me.ramidzkh.yarnforge.util.TinyV2BidirectionalWriter;
+import net.fabricmc.mapping.tree.TinyMappingFactory;
+import net.fabricmc.mapping.tree.TinyTree;
+import org.cadixdev.lorenz.MappingSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing Tiny mappings, and converting and writing them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TinyBenchmark {
+
+    @Param({"1000", "10000"})
+    public int classes;
+
+    private Path directory;
+    private Path tiny;
+    private TinyTree tree;
+    private MappingSet mappings;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("yarnforge-jmh");
+        tiny = directory.resolve("mappings.tiny");
+        Synthetic.writeTiny(tiny, classes);
+        tree = parse();
+        mappings = MappingBridge.loadTiny(tree, "official", "named");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Synthetic.delete(directory);
+    }
+
+    @Benchmark
+    public TinyTree parse() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(tiny)) {
+            return TinyMappingFactory.loadWithDetection(reader);
+        }
+    }
+
+    @Benchmark
+    public MappingSet loadTiny() {
+        return MappingBridge.loadTiny(tree, "official", "named");
+    }
+
+    @Benchmark
+    public CompactMappings compact() {
+        return CompactMappings.of(tree, "official", "named");
+    }
+
+    @Benchmark
+    public void writeMappingSet() throws IOException {
+        TinyV2BidirectionalWriter.write(mappings, "obf", "yarn", directory.resolve("obf-yarn.tiny"), directory.resolve("yarn-obf.tiny"), false);
+    }
+
+    @Benchmark
+    public void writeTree() throws IOException {
+        TinyV2BidirectionalWriter.write(tree, "official", "named", "obf", "yarn", directory.resolve("obf-yarn.tiny"), directory.resolve("yarn-obf.tiny"), false);
+    }
+}
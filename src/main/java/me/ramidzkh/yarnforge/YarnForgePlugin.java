@@ -18,6 +18,8 @@ package me.ramidzkh.yarnforge;
 
 import me.ramidzkh.yarnforge.task.BaseRemappingTask;
 import me.ramidzkh.yarnforge.task.ForgeRemapTask;
+import me.ramidzkh.yarnforge.task.JarRemapTask;
+import me.ramidzkh.yarnforge.task.MappingsService;
 import me.ramidzkh.yarnforge.task.UserRemapTask;
 import me.ramidzkh.yarnforge.util.MappingBridge;
 import net.minecraftforge.gradle.common.task.ExtractMCPData;
@@ -31,11 +33,16 @@ import org.cadixdev.lorenz.io.MappingFormats;
 import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.bundling.Jar;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
+import java.util.concurrent.Callable;
 
 public class YarnForgePlugin implements Plugin<Project> {
 
@@ -46,10 +53,22 @@ public class YarnForgePlugin implements Plugin<Project> {
             maven.setUrl(URI.create("https://maven.fabricmc.net/"));
         });
 
+        Provider<MappingsService> mappingsService = target.getGradle().getSharedServices().registerIfAbsent(MappingsService.NAME, MappingsService.class, spec -> {
+            Object maxIdle = target.findProperty("yarnforge.mappingsCacheSize");
+            spec.getParameters().getMaxIdle().set(maxIdle == null ? MappingsService.DEFAULT_MAX_IDLE : Integer.parseInt(String.valueOf(maxIdle)));
+        });
+
+        target.getTasks().withType(BaseRemappingTask.class).configureEach(task -> {
+            task.getMappingsService().set(mappingsService);
+            task.usesService(mappingsService);
+        });
+
         if (target.getPluginManager().hasPlugin("net.minecraftforge.gradle")) {
             Action<BaseRemappingTask> configurationAction = task -> {
                 ExtractMCPData extractData = (ExtractMCPData) target.getTasks().getByName("extractSrg");
                 task.dependsOn(extractData);
+                task.getNames().from((Callable<File>) extractData::getOutput);
+                task.getMcpNames().set(target.provider(() -> getNamesDependency(target)));
                 task.setNamesProvider(() -> {
                     try (BufferedReader reader = Files.newBufferedReader(extractData.getOutput().toPath())) {
                         MappingSet obf2Srg = MappingFormats.TSRG.createReader(reader).read();
@@ -61,10 +80,15 @@ public class YarnForgePlugin implements Plugin<Project> {
             };
 
             target.getTasks().register("userRemapYarn", UserRemapTask.class, configurationAction);
+            target.getTasks().register("remapJarYarn", JarRemapTask.class, task -> {
+                configurationAction.execute(task);
+                task.getInput().convention(target.getTasks().named(JavaPlugin.JAR_TASK_NAME, Jar.class).flatMap(Jar::getArchiveFile));
+            });
         } else {
             GenerateSRG createMcp2Obf = (GenerateSRG) target.project("forge").getTasks().getByName("createMcp2Obf");
             target.getTasks().register("forgeRemapYarn", ForgeRemapTask.class, task -> {
                 task.dependsOn(createMcp2Obf);
+                task.getNames().from((Callable<File>) createMcp2Obf::getOutput);
                 task.setNamesProvider(() -> {
                     try (BufferedReader reader = Files.newBufferedReader(createMcp2Obf.getOutput().toPath())) {
                         return MappingFormats.TSRG.createReader(reader).read().reverse();
@@ -76,6 +100,17 @@ public class YarnForgePlugin implements Plugin<Project> {
         }
     }
 
+    /**
+     * @return What identifies the MCP names {@link #findNames(Project, String)} loads, as an input of the tasks
+     */
+    private static String getNamesDependency(Project project) {
+        if (project.getProperties().containsKey("yarnforge.mcp")) {
+            return String.valueOf(project.getProperties().get("yarnforge.mcp"));
+        }
+
+        return project.getExtensions().getByType(UserDevExtension.class).getMappings();
+    }
+
     private static McpNames findNames(Project project, String mapping) throws IOException {
         // Looks like on old FG3 builds, the follow method doesn't exist
         // I'll make it use a property variable
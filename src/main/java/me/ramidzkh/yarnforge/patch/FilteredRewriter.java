@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.patch;
+
+import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.SourceRewriter;
+
+import java.util.function.Predicate;
+
+/**
+ * A {@link SourceRewriter} which only runs another on some files, see {@link RewriteTriggers}
+ */
+public class FilteredRewriter implements SourceRewriter {
+
+    private final SourceRewriter rewriter;
+    private final Predicate<String> files;
+
+    /**
+     * @param rewriter The rewriter
+     * @param files    Whether to run the rewriter on a file, by the qualified name of its primary type
+     */
+    public FilteredRewriter(SourceRewriter rewriter, Predicate<String> files) {
+        this.rewriter = rewriter;
+        this.files = files;
+    }
+
+    @Override
+    public int getFlags() {
+        return rewriter.getFlags();
+    }
+
+    @Override
+    public void rewrite(RewriteContext context) throws Exception {
+        if (files.test(context.getQualifiedPrimaryType())) {
+            rewriter.rewrite(context);
+        }
+    }
+}
@@ -11,6 +11,8 @@ public class OnlyInVisitor extends ASTVisitor {
 
     private static final String ONLY_IN = "net.minecraftforge.api.distmarker.OnlyIn";
     private static final String ONLY_INS = "net.minecraftforge.api.distmarker.OnlyIns";
+    private static final String ONLY_IN_NAME = "OnlyIn";
+    private static final String ONLY_INS_NAME = "OnlyIns";
 
     private final RewriteContext context;
 
@@ -29,56 +31,91 @@ public class OnlyInVisitor extends ASTVisitor {
     }
 
     private boolean visitNode(Annotation annotation) {
+        // Resolving bindings is expensive, so only resolve annotations which can be ours by name
+        String name = getSimpleName(annotation.getTypeName());
+
+        if (!ONLY_IN_NAME.equals(name) && !ONLY_INS_NAME.equals(name)) {
+            return false;
+        }
+
         IAnnotationBinding binding = annotation.resolveAnnotationBinding();
+
+        if (binding == null) {
+            return false;
+        }
+
         String binaryName = binding.getAnnotationType().getBinaryName();
 
         if (ONLY_IN.equals(binaryName)) {
+            context.createASTRewrite().replace(annotation, createEnvironment(annotation.getAST(), binding), null);
+        } else if (ONLY_INS.equals(binaryName)) {
             AST ast = annotation.getAST();
-            Dist dist = findPair(binding, "value").map(value -> Dist.valueOf(((IVariableBinding) value).getName())).get();
-            Optional<ITypeBinding> _itf = findPair(binding, "_interface").map(ITypeBinding.class::cast);
+            SingleMemberAnnotation newAnnotation = ast.newSingleMemberAnnotation();
+            newAnnotation.setTypeName(ast.newName(context.createImportRewrite().addImport("net.fabricmc.api.EnvironmentInterfaces")));
 
-            if (_itf.isPresent()) {
-                ITypeBinding itf = _itf.get();
+            ArrayInitializer array = ast.newArrayInitializer();
+            ListRewrite listRewrite = context.createASTRewrite().getListRewrite(array, ArrayInitializer.EXPRESSIONS_PROPERTY);
+            Object values = findPair(binding, "value").orElse(new Object[0]);
 
-                NormalAnnotation newAnnotation = ast.newNormalAnnotation();
-                newAnnotation.setTypeName(ast.newName(context.createImportRewrite().addImport("net.fabricmc.api.EnvironmentInterface")));
+            for (Object value : values instanceof Object[] ? (Object[]) values : new Object[]{values}) {
+                listRewrite.insertLast(createEnvironment(ast, (IAnnotationBinding) value), null);
+            }
 
-                {
-                    ListRewrite listRewrite = context.createASTRewrite().getListRewrite(newAnnotation, NormalAnnotation.VALUES_PROPERTY);
+            newAnnotation.setValue(array);
+            context.createASTRewrite().replace(annotation, newAnnotation, null);
+        }
 
-                    {
-                        MemberValuePair node = ast.newMemberValuePair();
-                        node.setName(ast.newSimpleName("value"));
-                        node.setValue(ast.newQualifiedName(ast.newName(context.createImportRewrite().addImport("net.fabricmc.api.EnvType")), ast.newSimpleName(dist.fabric)));
-                        listRewrite.insertFirst(node, null);
-                    }
+        return false;
+    }
 
-                    {
-                        MemberValuePair node = ast.newMemberValuePair();
-                        node.setName(ast.newSimpleName("itf"));
+    /**
+     * @return The Fabric annotation replacing a single <code>OnlyIn</code>
+     */
+    private Annotation createEnvironment(AST ast, IAnnotationBinding binding) {
+        Dist dist = findPair(binding, "value").map(value -> Dist.valueOf(((IVariableBinding) value).getName())).get();
+        Optional<ITypeBinding> _itf = findPair(binding, "_interface").map(ITypeBinding.class::cast);
 
-                        {
-                            TypeLiteral typeLiteral = ast.newTypeLiteral();
-                            typeLiteral.setType(ast.newSimpleType(ast.newName(context.createImportRewrite().addImport(itf))));
-                            node.setValue(typeLiteral);
-                        }
+        if (_itf.isPresent()) {
+            ITypeBinding itf = _itf.get();
 
-                        listRewrite.insertLast(node, null);
-                    }
+            NormalAnnotation newAnnotation = ast.newNormalAnnotation();
+            newAnnotation.setTypeName(ast.newName(context.createImportRewrite().addImport("net.fabricmc.api.EnvironmentInterface")));
+
+            {
+                ListRewrite listRewrite = context.createASTRewrite().getListRewrite(newAnnotation, NormalAnnotation.VALUES_PROPERTY);
+
+                {
+                    MemberValuePair node = ast.newMemberValuePair();
+                    node.setName(ast.newSimpleName("value"));
+                    node.setValue(ast.newQualifiedName(ast.newName(context.createImportRewrite().addImport("net.fabricmc.api.EnvType")), ast.newSimpleName(dist.fabric)));
+                    listRewrite.insertFirst(node, null);
                 }
 
-                context.createASTRewrite().replace(annotation, newAnnotation, null);
-            } else {
-                SingleMemberAnnotation newAnnotation = ast.newSingleMemberAnnotation();
-                newAnnotation.setTypeName(ast.newName(context.createImportRewrite().addImport("net.fabricmc.api.Environment")));
-                newAnnotation.setValue(ast.newQualifiedName(ast.newName(context.createImportRewrite().addImport("net.fabricmc.api.EnvType")), ast.newSimpleName(dist.fabric)));
-                context.createASTRewrite().replace(annotation, newAnnotation, null);
+                {
+                    MemberValuePair node = ast.newMemberValuePair();
+                    node.setName(ast.newSimpleName("itf"));
+
+                    {
+                        TypeLiteral typeLiteral = ast.newTypeLiteral();
+                        typeLiteral.setType(ast.newSimpleType(ast.newName(context.createImportRewrite().addImport(itf))));
+                        node.setValue(typeLiteral);
+                    }
+
+                    listRewrite.insertLast(node, null);
+                }
             }
-        } else if (ONLY_INS.equals(binaryName)) {
-            // TODO: Rewrite these
+
+            return newAnnotation;
         }
 
-        return false;
+        SingleMemberAnnotation newAnnotation = ast.newSingleMemberAnnotation();
+        newAnnotation.setTypeName(ast.newName(context.createImportRewrite().addImport("net.fabricmc.api.Environment")));
+        newAnnotation.setValue(ast.newQualifiedName(ast.newName(context.createImportRewrite().addImport("net.fabricmc.api.EnvType")), ast.newSimpleName(dist.fabric)));
+        return newAnnotation;
+    }
+
+    private static String getSimpleName(Name name) {
+        return name.isSimpleName() ? ((SimpleName) name).getIdentifier() : ((QualifiedName) name).getName().getIdentifier();
     }
 
     private static Optional<Object> findPair(IAnnotationBinding annotation, String name) {
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.patch;
+
+import me.ramidzkh.yarnforge.util.SourceIndex;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Which files of a source tree the rewriters can have any effect on, found lexically. Annotations can only be named
+ * by their simple names or their fully qualified names, and both mention the simple name as an identifier.
+ * <p>
+ * Files are told apart by the qualified name of their primary type, from the package they declare and their file
+ * name, which is what the remapper knows them by. It does not depend on where a file is, so a file whose directory
+ * does not match its package is still found
+ */
+public class RewriteTriggers {
+
+    private final Set<String> onlyIn;
+    private final Set<String> mixins;
+
+    private RewriteTriggers(Set<String> onlyIn, Set<String> mixins) {
+        this.onlyIn = onlyIn;
+        this.mixins = mixins;
+    }
+
+    /**
+     * @return Triggers which let every file through, for when the tree is not known up front
+     */
+    public static RewriteTriggers all() {
+        return new RewriteTriggers(null, null);
+    }
+
+    /**
+     * Scans a source tree
+     *
+     * @param root The source root
+     * @return The triggers
+     */
+    public static RewriteTriggers scan(Path root) throws IOException {
+        Set<String> onlyIn = new HashSet<>();
+        Set<String> mixins = new HashSet<>();
+
+        for (SourceIndex.SourceFile file : SourceIndex.scan(root).getFiles().values()) {
+            Set<String> identifiers = file.getIdentifiers();
+
+            if (identifiers.contains("OnlyIn") || identifiers.contains("OnlyIns")) {
+                onlyIn.add(file.getQualifiedPrimaryType());
+            }
+
+            if (identifiers.contains("Mixin")) {
+                mixins.add(file.getQualifiedPrimaryType());
+            }
+        }
+
+        return new RewriteTriggers(onlyIn, mixins);
+    }
+
+    /**
+     * @return Whether any file may be a mixin
+     */
+    public boolean hasMixins() {
+        return mixins == null || !mixins.isEmpty();
+    }
+
+    /**
+     * @param primaryType The qualified name of the primary type of a file
+     * @return Whether the file may be a mixin
+     */
+    public boolean hasMixin(String primaryType) {
+        return contains(mixins, primaryType);
+    }
+
+    /**
+     * @param primaryType The qualified name of the primary type of a file
+     * @return Whether the file may use <code>OnlyIn</code> or <code>OnlyIns</code>
+     */
+    public boolean hasOnlyIn(String primaryType) {
+        return contains(onlyIn, primaryType);
+    }
+
+    private static boolean contains(Set<String> files, String primaryType) {
+        return files == null || primaryType == null || files.contains(primaryType);
+    }
+}
@@ -16,62 +16,135 @@
 
 package me.ramidzkh.yarnforge.task;
 
-import me.ramidzkh.yarnforge.patch.YarnForgeRewriter;
+import codechicken.diffpatch.util.Utils;
+import com.google.common.base.Throwables;
+import me.ramidzkh.yarnforge.patch.RewriteTriggers;
+import me.ramidzkh.yarnforge.util.FieldNameProposer;
+import me.ramidzkh.yarnforge.util.FileCache;
+import me.ramidzkh.yarnforge.util.HierarchyIndex;
+import me.ramidzkh.yarnforge.util.IntermediaryRenamer;
 import me.ramidzkh.yarnforge.util.MappingBridge;
+import me.ramidzkh.yarnforge.util.MappingSetSnapshot;
+import me.ramidzkh.yarnforge.util.MappingsBuilder;
 import me.ramidzkh.yarnforge.util.Pair;
-import me.ramidzkh.yarnforge.util.TinyV2BiNamespaceMappingsWriter;
+import me.ramidzkh.yarnforge.util.PhaseProfiler;
+import me.ramidzkh.yarnforge.util.SourceShards;
+import me.ramidzkh.yarnforge.worker.BuildMappingsAction;
+import me.ramidzkh.yarnforge.worker.RemapJarAction;
+import me.ramidzkh.yarnforge.worker.RewriteAction;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
+import net.fabricmc.mappings.EntryTriple;
 import net.fabricmc.stitch.commands.CommandMergeJar;
-import net.fabricmc.stitch.commands.CommandProposeFieldNames;
+import net.fabricmc.stitch.util.FieldNameFinder;
 import net.minecraftforge.artifactural.api.artifact.ArtifactIdentifier;
 import net.minecraftforge.artifactural.api.repository.ArtifactProvider;
 import net.minecraftforge.gradle.common.util.Artifact;
 import net.minecraftforge.gradle.common.util.MinecraftRepo;
-import org.cadixdev.bombe.analysis.CachingInheritanceProvider;
-import org.cadixdev.bombe.analysis.CascadingInheritanceProvider;
 import org.cadixdev.bombe.analysis.InheritanceProvider;
-import org.cadixdev.bombe.analysis.ReflectionInheritanceProvider;
-import org.cadixdev.bombe.asm.analysis.ClassProviderInheritanceProvider;
-import org.cadixdev.bombe.asm.jar.ClassProvider;
-import org.cadixdev.bombe.asm.jar.JarFileClassProvider;
 import org.cadixdev.lorenz.MappingSet;
-import org.cadixdev.lorenz.io.MappingFormats;
-import org.cadixdev.mercury.Mercury;
-import org.cadixdev.mercury.mixin.MixinRemapper;
-import org.cadixdev.mercury.mixin.cleaner.MixinCleaner;
-import org.cadixdev.mercury.remapper.MercuryRemapper;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.ArtifactCollection;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.result.ResolvedArtifactResult;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.options.Option;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
-import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.inject.Inject;
 
 public abstract class BaseRemappingTask extends DefaultTask {
 
+    /**
+     * A rough estimate of how much heap JDT needs per byte of source it parses and resolves at once
+     */
+    private static final long HEAP_PER_SOURCE_BYTE = 32;
+
+    /**
+     * A rough estimate of how much heap a rewriting worker needs besides its shard, mostly for the mappings
+     */
+    private static final long REWRITE_BASE_HEAP = 768L * 1024 * 1024;
+
+    /**
+     * How many of the intermediary names a target does not know are named in the warning about them
+     */
+    private static final int MAX_UNMAPPED_EXAMPLES = 10;
+
     private String version;
     private String mappings;
     private boolean mixin;
     private boolean debugMappings;
+    private boolean compressMappings;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean inProcess;
+    private String maxHeap;
+    private String defaultMaxHeap = "1G";
+    private long shardMemory;
+    private List<String> targets = new ArrayList<>();
     private Supplier<MappingSet> namesProvider;
+    private WorkQueue workQueue;
+    private WorkQueue rewriteQueue;
+    private String mappingsKey;
+    private final PhaseProfiler profiler = new PhaseProfiler();
 
     public BaseRemappingTask() {
         setGroup("yarnforge");
+        getClasspath().from((Callable<Set<File>>) this::getDependencies);
+        getOutputDirectory().convention(getProject().getLayout().getProjectDirectory().dir("remapped"));
+    }
+
+    @Input
+    @Optional
+    public String getVersion() {
+        return version;
     }
 
     @Option(description = "Minecraft version", option = "mc-version")
@@ -79,11 +152,22 @@ public abstract class BaseRemappingTask extends DefaultTask {
         this.version = version;
     }
 
+    @Input
+    @Optional
+    public String getMappings() {
+        return mappings;
+    }
+
     @Option(description = "Mappings", option = "mappings")
     public void setMappings(String mappings) {
         this.mappings = mappings;
     }
 
+    @Input
+    public boolean isMixin() {
+        return mixin;
+    }
+
     @Option(description = "Mixin support", option = "mixin")
     public void setMixin(boolean mixin) {
         this.mixin = mixin;
@@ -94,182 +178,840 @@ public abstract class BaseRemappingTask extends DefaultTask {
         this.debugMappings = debugMappings;
     }
 
+    @Input
+    public boolean isCompressMappings() {
+        return compressMappings;
+    }
+
+    @Option(description = "Compress the exported Tiny mappings with gzip", option = "compress-mappings")
+    public void setCompressMappings(boolean compressMappings) {
+        this.compressMappings = compressMappings;
+    }
+
+    @Option(description = "Number of threads used to build mappings", option = "threads")
+    public void setThreads(String threads) {
+        this.threads = Integer.parseInt(threads);
+    }
+
+    @Option(description = "Remap inside the Gradle daemon, rather than in a worker process", option = "in-process")
+    public void setInProcess(boolean inProcess) {
+        this.inProcess = inProcess;
+    }
+
+    @Option(description = "Maximum heap size of the worker process, e.g. 3G", option = "max-heap")
+    public void setMaxHeap(String maxHeap) {
+        this.maxHeap = maxHeap;
+    }
+
+    /**
+     * @param defaultMaxHeap The heap of the worker process when <code>--max-heap</code> is not given
+     */
+    protected void setDefaultMaxHeap(String defaultMaxHeap) {
+        this.defaultMaxHeap = defaultMaxHeap;
+    }
+
+    @Option(description = "Rewrite large source trees in shards of packages, each fitting in this much heap, e.g. 512M", option = "shard-memory")
+    public void setShardMemory(String shardMemory) {
+        this.shardMemory = parseSize(shardMemory);
+    }
+
+    /**
+     * @return The mappings to remap to at once, as <code>&lt;mc-version&gt;=&lt;mappings&gt;</code>, see
+     * {@link #renameTargets(Path, Path)}
+     */
+    @Input
+    public List<String> getTargets() {
+        return targets;
+    }
+
+    @Option(description = "Also remap to these mappings, as <mc-version>=<mappings>. Can be given several times", option = "target")
+    public void setTargets(List<String> targets) {
+        this.targets = new ArrayList<>(targets);
+    }
+
+    private static long parseSize(String size) {
+        String value = size.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+
+        if (value.endsWith("K")) {
+            unit = 1024;
+        } else if (value.endsWith("M")) {
+            unit = 1024 * 1024;
+        } else if (value.endsWith("G")) {
+            unit = 1024 * 1024 * 1024;
+        }
+
+        return Long.parseLong(unit == 1 ? value : value.substring(0, value.length() - 1)) * unit;
+    }
+
     public void setNamesProvider(Supplier<MappingSet> namesProvider) {
         this.namesProvider = namesProvider;
     }
 
-    protected Mercury createRemapper() throws IOException {
-        Mercury mercury = new Mercury();
-        MappingSet mappings = createMcpToYarn();
+    /**
+     * @return The SRG files the names provider reads, see {@link #setNamesProvider(Supplier)}
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract ConfigurableFileCollection getNames();
+
+    /**
+     * @return The MCP names the names provider merges into the SRG files, if any
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getMcpNames();
+
+    /**
+     * @return The dependencies, used to complete the mappings with inherited members. Defaults to the compile and
+     * runtime class paths of the project
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getClasspath();
+
+    /**
+     * @return Where the remapped sources and exported mappings are written. Defaults to <code>remapped</code>
+     */
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    /**
+     * @return Keeps the MCP names, and in-process the mappings, loaded between builds
+     */
+    @Internal
+    public abstract Property<MappingsService> getMappingsService();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    /**
+     * All work which needs the mappings runs in a worker process, so the mappings and the ASTs of the rewritten sources
+     * never live in the Gradle daemon. Every request to this queue reuses the same worker
+     */
+    private WorkQueue getWorkQueue() {
+        if (workQueue == null) {
+            String heap = maxHeap == null ? defaultMaxHeap : maxHeap;
+            workQueue = getWorkerExecutor().processIsolation(spec -> spec.forkOptions(options -> options.setMaxHeapSize(heap)));
+        }
+
+        return workQueue;
+    }
+
+    /**
+     * Like {@link #getWorkQueue()}, but for rewriting sources. When rewriting in shards, and no heap is given, the
+     * heap of these workers follows the shard budget rather than the default
+     */
+    private WorkQueue getRewriteQueue() {
+        if (shardMemory <= 0 || maxHeap != null) {
+            return getWorkQueue();
+        }
 
-        if (mixin) {
-            mercury.getProcessors().add(MixinRemapper.create(mappings));
-            mercury.getProcessors().add(MixinCleaner.create());
+        if (rewriteQueue == null) {
+            String heap = (REWRITE_BASE_HEAP + shardMemory) / (1024 * 1024) + "m";
+            rewriteQueue = getWorkerExecutor().processIsolation(spec -> spec.forkOptions(options -> options.setMaxHeapSize(heap)));
         }
 
-        mercury.getProcessors().add(MercuryRemapper.create(mappings));
-        mercury.getProcessors().add(new YarnForgeRewriter());
-        return mercury;
+        return rewriteQueue;
     }
 
-    private MappingSet createMcpToYarn() throws IOException {
-        if (version == null || mappings == null) {
-            throw new GradleException("Missing --mc-version and/or --mappings");
+    @TaskAction
+    public void doTask() throws Exception {
+        try {
+            remap();
+        } finally {
+            // The report is most useful when something went wrong, or took too long and was cancelled
+            try {
+                writeProfile();
+            } catch (IOException exception) {
+                getLogger().warn("Failed to write the phase report", exception);
+            }
         }
+    }
 
-        Project project = getProject();
-        Pair<TinyTree, File> pair = loadTree(project, mappings);
-        MappingSet obfToYarn = MappingBridge.loadTiny(pair.left, "official", "named");
-        MappingSet obfToMcp = namesProvider.get();
+    protected abstract void remap() throws Exception;
+
+    protected PhaseProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @return A new file for a worker to write its profile fragment to, see {@link #writeProfile()}
+     */
+    private File createProfileFragment() {
+        File directory = new File(getTemporaryDir(), "profile");
+        directory.mkdirs();
+        return new File(directory, UUID.randomUUID() + ".txt");
+    }
+
+    /**
+     * Writes the phases recorded by this task and its workers to <code>build/reports/yarnforge/&lt;task&gt;.json</code>
+     */
+    private void writeProfile() throws IOException {
+        Path fragments = getTemporaryDir().toPath().resolve("profile");
+
+        if (Files.isDirectory(fragments)) {
+            List<Path> paths;
 
-        // TODO: Bullet-proof propagation
-        CascadingInheritanceProvider cascadingInheritanceProvider = new CascadingInheritanceProvider();
+            try (Stream<Path> stream = Files.list(fragments)) {
+                paths = stream.collect(Collectors.toList());
+            }
+
+            for (Path path : paths) {
+                profiler.readFragment(path);
+                Files.delete(path);
+            }
+        }
 
-        {
-            List<ClassProvider> providers = new ArrayList<>();
+        Path report = getProject().getBuildDir().toPath().resolve("reports/yarnforge/" + getName() + ".json");
+        profiler.writeReport(report, getPath());
+        getLogger().lifecycle("Wrote the phase report to {}", report);
+    }
+
+    /**
+     * Rewrites several source trees, each with its own copy of the mappings. None of the passes may read the output of
+     * another, as they all run at once. The shards of a pass run one after another, so only one of them is in memory
+     * at a time
+     *
+     * @param snapshot The mcp to yarn mappings, see {@link #createMcpToYarnSnapshot()}
+     * @param passes   The source trees to rewrite
+     */
+    protected void rewrite(Path snapshot, List<Pass> passes) throws Exception {
+        Path shards = getTemporaryDir().toPath().resolve("shards");
+
+        try {
+            List<List<Pass>> sharded = new ArrayList<>();
+            int rounds = 0;
+
+            for (Pass pass : passes) {
+                List<Pass> shardsOfPass = shard(pass, shards);
+                sharded.add(shardsOfPass);
+                rounds = Math.max(rounds, shardsOfPass.size());
+            }
 
-            providers.add(new JarFileClassProvider(new JarFile(pair.right)));
+            // Every round rewrites the next shard of each pass
+            for (int i = 0; i < rounds; i++) {
+                List<Pass> round = new ArrayList<>();
 
-            // I did some testing, run this and again without this, and see the differences
-            // Between the mapping files. You need this
-            for (File dependency : getAllDependencies()) {
-                if (dependency.isFile()) {
-                    providers.add(new JarFileClassProvider(new JarFile(dependency)));
+                for (List<Pass> shardsOfPass : sharded) {
+                    if (i < shardsOfPass.size()) {
+                        round.add(shardsOfPass.get(i));
+                    }
+                }
+
+                rewriteShards(snapshot, round);
+            }
+
+            for (int i = 0; i < passes.size(); i++) {
+                merge(passes.get(i), sharded.get(i));
+            }
+        } finally {
+            if (Files.exists(shards)) {
+                Utils.deleteFolder(shards);
+            }
+        }
+    }
+
+    /**
+     * Splits a pass into shards when a shard memory budget is set. A shard only parses its own files, the rest of its
+     * source tree is resolved lazily through the class path, so peak heap follows the size of a shard rather than the
+     * size of the tree
+     */
+    private List<Pass> shard(Pass pass, Path shards) throws IOException {
+        if (shardMemory <= 0 || !Files.isDirectory(pass.input)) {
+            return Collections.singletonList(pass);
+        }
+
+        List<List<String>> plan = SourceShards.plan(pass.input, Math.max(1, shardMemory / HEAP_PER_SOURCE_BYTE));
+
+        if (plan.size() <= 1) {
+            return Collections.singletonList(pass);
+        }
+
+        List<Path> classPath = new ArrayList<>(pass.classPath);
+        classPath.add(pass.input);
+        List<Pass> result = new ArrayList<>();
+
+        for (int i = 0; i < plan.size(); i++) {
+            // Each shard writes to its own directory, so a failing shard cannot take its siblings with it
+            Path shard = shards.resolve(pass.name + "-" + i);
+            SourceShards.stage(pass.input, plan.get(i), shard.resolve("input"));
+            result.add(new Pass(pass.name + " (" + (i + 1) + "/" + plan.size() + ")", shard.resolve("input"), shard.resolve("output"), classPath, pass.optional));
+        }
+
+        return result;
+    }
+
+    /**
+     * Moves the outputs of the shards of a pass into the output of the pass, once every shard is done. A shard which
+     * failed has no output, in which case the whole pass failed, as it would have without shards
+     */
+    private void merge(Pass pass, List<Pass> shards) throws IOException {
+        if (shards.size() == 1 && shards.get(0) == pass) {
+            return;
+        }
+
+        for (Pass shard : shards) {
+            if (!Files.isDirectory(shard.output)) {
+                getLogger().lifecycle("failed to remap " + pass.name + "!");
+
+                if (Files.exists(pass.output)) {
+                    Utils.deleteFolder(pass.output);
                 }
+
+                return;
+            }
+        }
+
+        for (Pass shard : shards) {
+            List<Path> files;
+
+            try (Stream<Path> stream = Files.walk(shard.output)) {
+                files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
             }
 
-            cascadingInheritanceProvider.install(new ClassProviderInheritanceProvider(klass -> {
-                for (ClassProvider provider : providers) {
-                    byte[] bytes = provider.get(klass);
+            for (Path file : files) {
+                Path target = pass.output.resolve(shard.output.relativize(file).toString());
+                Files.createDirectories(target.getParent());
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private void rewriteShards(Path snapshot, List<Pass> passes) throws Exception {
+        if (!inProcess) {
+            WorkQueue queue = getRewriteQueue();
+
+            for (Pass pass : passes) {
+                queue.submit(RewriteAction.class, parameters -> {
+                    parameters.getPassName().set(pass.name);
+                    parameters.getMappings().set(snapshot.toFile());
+                    parameters.getInput().set(pass.input.toFile());
+                    parameters.getOutput().set(pass.output.toFile());
+                    parameters.getClassPath().from(pass.classPath.stream().map(Path::toFile).collect(Collectors.toList()));
+                    parameters.getMixin().set(mixin);
+                    parameters.getOptional().set(pass.optional);
+                    parameters.getProfile().set(createProfileFragment());
+                });
+            }
+
+            queue.await();
+            return;
+        }
 
-                    if (bytes != null) {
-                        return bytes;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, passes.size())));
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (Pass pass : passes) {
+                futures.add(executor.submit(() -> {
+                    RewriteTriggers triggers;
+
+                    try (PhaseProfiler.Phase ignored = profiler.start("scan triggers " + pass.name)) {
+                        triggers = RewriteTriggers.scan(pass.input);
                     }
+
+                    // Mercury only ever completes the mappings, so a copy left by an earlier pass is as good as a new one
+                    try (MappingsService.Lease<MappingSet> mappings = acquireSnapshot(snapshot, pass.name)) {
+                        RewriteAction.rewrite(pass.name, RewriteAction.createRemapper(mappings.get(), mixin, triggers), pass.input, pass.output, pass.classPath, pass.optional, profiler);
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException exception) {
+                    Throwables.throwIfInstanceOf(exception.getCause(), Exception.class);
+                    Throwables.throwIfUnchecked(exception.getCause());
+                    throw exception;
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Remaps the classes of a jar
+     *
+     * @param snapshot  The mcp to yarn mappings, see {@link #createMcpToYarnSnapshot()}
+     * @param input     The jar
+     * @param output    Where to write the remapped jar
+     * @param classpath The jar and its dependencies, to complete the mappings with inherited members
+     */
+    protected void remapJar(Path snapshot, Path input, Path output, List<File> classpath) throws IOException {
+        FileCache hierarchies = FileCache.create(getProject(), "hierarchy");
+
+        if (inProcess) {
+            List<String> parts = new ArrayList<>();
+
+            for (File file : classpath) {
+                parts.add(file.getAbsolutePath() + "@" + file.lastModified());
+            }
+
+            String key = "hierarchy:" + FileCache.key(parts.toArray(new String[0]));
 
-                return null;
-            }));
+            try (MappingsService.Lease<MappingSet> mappings = acquireSnapshot(snapshot, "jar");
+                 MappingsService.Lease<InheritanceProvider> inheritanceProvider = getMappingsService().get().acquire(key, () -> RemapJarAction.createInheritanceProvider(classpath, hierarchies, threads, profiler))) {
+                RemapJarAction.remapJar(mappings.get(), inheritanceProvider.get(), input, output, threads, profiler);
+            }
+
+            return;
         }
 
-        cascadingInheritanceProvider.install(new ReflectionInheritanceProvider(ClassLoader.getSystemClassLoader())); // For JRE classes
+        WorkQueue queue = getWorkQueue();
+        queue.submit(RemapJarAction.class, parameters -> {
+            parameters.getMappings().set(snapshot.toFile());
+            parameters.getInput().set(input.toFile());
+            parameters.getOutput().set(output.toFile());
+            parameters.getClasspath().from(classpath);
+            parameters.getHierarchyCache().set(hierarchies.getRoot().toFile());
+            parameters.getHierarchyCacheSize().set(hierarchies.getMaxSize());
+            parameters.getThreads().set(threads);
+            parameters.getProfile().set(createProfileFragment());
+        });
+        queue.await();
+    }
 
-        InheritanceProvider inheritanceProvider = new CachingInheritanceProvider(cascadingInheritanceProvider);
-        MappingBridge.iterateClasses(obfToYarn, classMapping -> classMapping.complete(inheritanceProvider));
-        MappingBridge.iterateClasses(obfToMcp, classMapping -> classMapping.complete(inheritanceProvider));
+    /**
+     * Leases a copy of the mappings in a snapshot, reading it unless an earlier pass or build left one
+     */
+    private MappingsService.Lease<MappingSet> acquireSnapshot(Path snapshot, String name) throws IOException {
+        return getMappingsService().get().acquire("snapshot:" + snapshot.getFileName(), () -> {
+            try (PhaseProfiler.Phase ignored = profiler.start("read snapshot " + name)) {
+                return MappingSetSnapshot.read(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Leases the MCP names, with their fingerprint, loading them unless an earlier build left them. They are put back
+     * into the pool, so they must not be changed
+     */
+    private MappingsService.Lease<Pair<MappingSet, String>> acquireNames() throws IOException {
+        List<String> parts = new ArrayList<>();
 
-        MappingSet mcpToYarn = obfToMcp.reverse().merge(obfToYarn);
+        for (File file : getNames().getFiles()) {
+            parts.add(FileCache.hash(file));
+        }
 
-        debug("obf", "yarn", obfToYarn);
-        debug("obf", "mcp", obfToMcp);
-        debug("mcp", "yarn", mcpToYarn);
+        parts.add(getMcpNames().getOrElse(""));
+
+        return getMappingsService().get().acquire("names:" + FileCache.key(parts.toArray(new String[0])), () -> {
+            try (PhaseProfiler.Phase ignored = profiler.start("load mcp names")) {
+                MappingSet obfToMcp = namesProvider.get();
+                return new Pair<>(obfToMcp, MappingBridge.fingerprint(obfToMcp));
+            }
+        });
+    }
+
+    /**
+     * Builds the mcp to yarn mappings, or finds them from an earlier build. Mercury completes the mappings it is given
+     * while rewriting, so every concurrent rewrite needs a copy of its own, read from the snapshot
+     *
+     * @return A snapshot of the mappings, see {@link MappingSetSnapshot}
+     */
+    protected Path createMcpToYarnSnapshot() throws IOException {
+        return createMcpToYarnSnapshot(null);
+    }
+
+    /**
+     * Like {@link #createMcpToYarnSnapshot()}, but only keeps the classes some sources can reach
+     *
+     * @param identifiers The identifiers mentioned by the sources, or <code>null</code> to keep every class
+     * @return A snapshot of the mappings
+     */
+    protected Path createMcpToYarnSnapshot(Set<String> identifiers) throws IOException {
+        return createMcpToYarnSnapshot(identifiers, "named");
+    }
+
+    /**
+     * Like {@link #createMcpToYarnSnapshot(Set)}, but maps to another namespace of the Tiny mappings
+     *
+     * @param identifiers The identifiers mentioned by the sources, or <code>null</code> to keep every class
+     * @param namespace   The namespace to map to, e.g. <code>intermediary</code>
+     * @return A snapshot of the mappings
+     */
+    protected Path createMcpToYarnSnapshot(Set<String> identifiers, String namespace) throws IOException {
+        if (version == null || mappings == null) {
+            throw new GradleException("Missing --mc-version and/or --mappings");
+        }
+
+        try (MappingsService.Lease<Pair<MappingSet, String>> names = acquireNames()) {
+            return createMcpToYarnSnapshot(identifiers, namespace, names.get().left, names.get().right);
+        }
+    }
+
+    private Path createMcpToYarnSnapshot(Set<String> identifiers, String namespace, MappingSet obfToMcp, String fingerprint) throws IOException {
+        Project project = getProject();
+        Pair<Path, File> proposed = proposeMappings(project, version, mappings);
 
         if (debugMappings) {
+            buildMcpToYarn(proposed, namespace, obfToMcp, identifiers, null);
             throw new RuntimeException("Killing remapping, maybe not so gracefully");
         }
 
-        return mcpToYarn;
-    }
+        // The result depends on the proposed mappings and the MCP names, but also on the hierarchy they are completed
+        // against, i.e. the class path and the JDK, so a snapshot of an earlier build is only reused when none changed
+        String key = FileCache.key(proposed.left.getFileName().toString(), fingerprint, String.valueOf(MappingSetSnapshot.VERSION), String.valueOf(MappingsBuilder.VERSION), namespace, hashClasspath(), HierarchyIndex.getJdkKey());
+        mappingsKey = key;
 
-    public Pair<TinyTree, File> loadTree(Project project, String mappings) throws IOException {
-        try (FileSystem archive = FileSystems.newFileSystem(project.getConfigurations().detachedConfiguration(project.getDependencies().create(mappings)).getSingleFile().toPath(), (ClassLoader) null)) {
-            Path copy = Files.createTempFile("mappings", ".tiny");
-            Path output = Files.createTempFile("mappings", ".tiny");
+        if (identifiers != null) {
+            List<String> sorted = new ArrayList<>(identifiers);
+            Collections.sort(sorted);
+            key = FileCache.key(key, FileCache.key(sorted.toArray(new String[0])));
+        }
+
+        FileCache snapshots = FileCache.create(project, "snapshots");
+        FileCache.Producer producer = output -> {
+            try (PhaseProfiler.Phase ignored = profiler.start("build mappings")) {
+                buildMcpToYarn(proposed, namespace, obfToMcp, identifiers, output);
+            }
+        };
+        // Verified, so a truncated or corrupt snapshot is built again rather than failing every rewrite reading it
+        Path snapshot = snapshots.getVerified(key + ".bin", producer);
 
-            Files.deleteIfExists(copy);
-            Files.deleteIfExists(output);
+        if (!MappingSetSnapshot.isCurrent(snapshot)) {
+            project.getLogger().warn("Rebuilding mappings, the snapshot at {} is stale", snapshot);
+            Files.deleteIfExists(snapshot);
+            snapshot = snapshots.getVerified(key + ".bin", producer);
+        }
 
-            Files.copy(archive.getPath("mappings/mappings.tiny"), copy);
+        return snapshot;
+    }
 
-            File merged = proposeFieldNames(MinecraftRepo.create(project), version, copy, output);
+    /**
+     * @return A key of the contents of the class path, in order, as earlier entries win when resolving the hierarchy
+     */
+    private String hashClasspath() throws IOException {
+        List<String> parts = new ArrayList<>();
 
-            try (BufferedReader reader = Files.newBufferedReader(output)) {
-                return new Pair<>(TinyMappingFactory.loadWithDetection(reader), merged);
-            } finally {
-                Files.deleteIfExists(copy);
-                Files.deleteIfExists(output);
+        try (PhaseProfiler.Phase ignored = profiler.start("hash class path")) {
+            for (File file : getClasspath().getFiles()) {
+                String hash = file.isFile() ? FileCache.hash(file) : file.isDirectory() ? FileCache.hashDirectory(file.toPath()) : "";
+                parts.add(file.getName() + "@" + hash);
             }
-        } catch (IOException exception) {
-            throw exception;
-        } catch (Exception exception) {
-            throw new RuntimeException(exception);
         }
+
+        return FileCache.key(parts.toArray(new String[0]));
     }
 
-    private static File proposeFieldNames(ArtifactProvider<ArtifactIdentifier> provider, String version, Path in, Path out) throws Exception {
-        File client = provider.getArtifact(Artifact.from("net.minecraft:client:" + version)).optionallyCache(null).asFile();
-        File server = provider.getArtifact(Artifact.from("net.minecraft:server:" + version)).optionallyCache(null).asFile();
-        File merged = File.createTempFile("merged", ".jar");
+    /**
+     * Builds the mcp to yarn mappings, exporting them next to the remapped sources
+     *
+     * @param output Where to write the snapshot of the mappings, or <code>null</code> to only export them
+     */
+    private void buildMcpToYarn(Pair<Path, File> proposed, String namespace, MappingSet obfToMcp, Set<String> identifiers, Path output) throws IOException {
+        List<File> classpath = new ArrayList<>();
+        classpath.add(proposed.right);
+
+        // I did some testing, run this and again without this, and see the differences
+        // Between the mapping files. You need this
+        classpath.addAll(getClasspath().getFiles());
+
+        FileCache hierarchies = FileCache.create(getProject(), "hierarchy");
+        Path exports = getOutputDirectory().get().getAsFile().toPath();
+
+        if (inProcess) {
+            // The names go back into the pool once built, so they must not be completed in place. Pruning copies them
+            // already
+            MappingSet copy = identifiers == null ? obfToMcp.copy() : obfToMcp;
+            MappingSet mcpToYarn = MappingsBuilder.buildMcpToYarn(proposed.left, namespace, classpath, copy, identifiers, hierarchies, threads, exports, debugMappings, compressMappings, profiler);
+
+            if (output != null) {
+                try (PhaseProfiler.Phase ignored = profiler.start("write snapshot")) {
+                    MappingSetSnapshot.write(mcpToYarn, output);
+                }
+            }
 
-        if (merged.exists()) {
-            merged.delete();
+            return;
         }
 
-        String[] mergeArgs = {
-                client.getAbsolutePath(),
-                server.getAbsolutePath(),
-                merged.getAbsolutePath()
-        };
+        // The MCP names come from ForgeGradle, which only exists in the daemon, so hand them over as a snapshot
+        File names = new File(getTemporaryDir(), "obfToMcp.bin");
+
+        try (PhaseProfiler.Phase ignored = profiler.start("write mcp names")) {
+            MappingSetSnapshot.write(obfToMcp, names.toPath());
+        }
 
-        new CommandMergeJar().run(mergeArgs);
+        File identifiersFile = new File(getTemporaryDir(), "identifiers.txt");
 
-        String[] proposeArgs = {
-                merged.getAbsolutePath(),
-                in.toAbsolutePath().toString(),
-                out.toAbsolutePath().toString()
-        };
+        if (identifiers != null) {
+            Files.write(identifiersFile.toPath(), identifiers);
+        }
 
-        new CommandProposeFieldNames().run(proposeArgs);
+        WorkQueue queue = getWorkQueue();
+        queue.submit(BuildMappingsAction.class, parameters -> {
+            parameters.getTiny().set(proposed.left.toFile());
+            parameters.getNamespace().set(namespace);
+            parameters.getClasspath().from(classpath);
+            parameters.getObfToMcp().set(names);
 
-        return merged;
+            if (identifiers != null) {
+                parameters.getIdentifiers().set(identifiersFile);
+            }
+            parameters.getHierarchyCache().set(hierarchies.getRoot().toFile());
+            parameters.getHierarchyCacheSize().set(hierarchies.getMaxSize());
+            parameters.getThreads().set(threads);
+            parameters.getExports().set(exports.toFile());
+            parameters.getDebugMappings().set(debugMappings);
+            parameters.getCompressMappings().set(compressMappings);
+
+            if (output != null) {
+                parameters.getOutput().set(output.toFile());
+            }
+
+            parameters.getProfile().set(createProfileFragment());
+        });
+        queue.await();
     }
 
-    protected Set<File> getAllDependencies() {
-        Set<File> files = new HashSet<>();
+    /**
+     * Renames a tree remapped to intermediary names once per target, into a directory named after the mappings of the
+     * target. Intermediary names are shared by every mappings version, so the sources only need to be bound once
+     *
+     * @param input  The tree, remapped to intermediary names
+     * @param output The directory holding the renamed trees
+     */
+    protected void renameTargets(Path input, Path output) throws IOException {
+        Map<String, String[]> parsed = new LinkedHashMap<>();
+
+        for (String target : targets) {
+            int separator = target.indexOf('=');
+
+            if (separator <= 0 || separator == target.length() - 1) {
+                throw new GradleException("Malformed --target " + target + ", expected <mc-version>=<mappings>");
+            }
+
+            String mappings = target.substring(separator + 1);
+            String name = getTargetName(mappings);
 
-        for (Configuration configuration : getProject().getConfigurations()) {
-            try {
-                files.addAll(configuration.getFiles());
-            } catch (Throwable ignored) {
+            if (parsed.put(name, new String[]{target.substring(0, separator), mappings}) != null) {
+                throw new GradleException("Several targets would be written to " + output.resolve(name));
             }
         }
 
-        return files;
+        for (Map.Entry<String, String[]> target : parsed.entrySet()) {
+            Path directory = output.resolve(target.getKey());
+
+            try (PhaseProfiler.Phase ignored = profiler.start("rename " + target.getKey())) {
+                TinyTree tree = loadTree(getProject(), target.getValue()[0], target.getValue()[1]).left;
+
+                if (Files.exists(directory)) {
+                    Utils.deleteFolder(directory);
+                }
+
+                IntermediaryRenamer renamer = IntermediaryRenamer.of(tree, "intermediary", "named");
+                renamer.renameTree(input, directory, threads);
+                warnUnmapped(renamer.getUnmapped(), target.getValue()[1]);
+            }
+
+            getLogger().lifecycle("Remapped to {} in {}", target.getValue()[1], directory);
+        }
     }
 
-    private void debug(String a, String b, MappingSet mappings) throws IOException {
-        if (debugMappings) {
-            Path path = getProject().file("remapped/" + a + "To" + capitaliseFirstCharacter(b) + ".srg").toPath();
-            Files.createDirectories(path.getParent());
+    /**
+     * Warns about the intermediary names a target does not know, which were left in its sources as they are
+     */
+    private void warnUnmapped(Set<String> unmapped, String mappings) {
+        if (unmapped.isEmpty()) {
+            return;
+        }
+
+        List<String> examples = unmapped.stream().limit(MAX_UNMAPPED_EXAMPLES).collect(Collectors.toList());
+        getLogger().warn("{} intermediary names are not in {}, and were left as they are, e.g. {}", unmapped.size(), mappings, String.join(", ", examples));
+    }
 
-            try (BufferedWriter writer = Files.newBufferedWriter(path)) {
-                MappingFormats.SRG.createWriter(writer).write(mappings);
+    /**
+     * @return The version, and classifier if any, of a mappings dependency, e.g. <code>1.16.5+build.5-v2</code>
+     */
+    private static String getTargetName(String mappings) {
+        String[] parts = mappings.split(":");
+
+        if (parts.length < 3) {
+            throw new GradleException("Mappings " + mappings + " have no version");
+        }
+
+        String name = parts.length > 3 ? parts[2] + "-" + parts[3] : parts[2];
+        return name.replaceAll("[^\\w.+-]", "_");
+    }
+
+    public Pair<TinyTree, File> loadTree(Project project, String mappings) throws IOException {
+        return loadTree(project, version, mappings);
+    }
+
+    /**
+     * Loads some mappings, with proposed field names, for some Minecraft version
+     *
+     * @param project  The project
+     * @param version  The Minecraft version
+     * @param mappings The mappings dependency
+     * @return The mappings, and the merged Minecraft jar they were proposed from
+     */
+    protected Pair<TinyTree, File> loadTree(Project project, String version, String mappings) throws IOException {
+        Pair<Path, File> proposed = proposeMappings(project, version, mappings);
+
+        try (BufferedReader reader = Files.newBufferedReader(proposed.left)) {
+            return new Pair<>(TinyMappingFactory.loadWithDetection(reader), proposed.right);
+        }
+    }
+
+    /**
+     * @return The key of the mappings last built by {@link #createMcpToYarnSnapshot(Set)}, which does not depend on
+     * pruning
+     */
+    protected String getMappingsKey() {
+        return mappingsKey;
+    }
+
+    protected int getThreads() {
+        return threads;
+    }
+
+    private Pair<Path, File> proposeMappings(Project project, String version, String mappings) throws IOException {
+        File mappingsJar;
+
+        try (PhaseProfiler.Phase ignored = profiler.start("download mappings")) {
+            mappingsJar = project.getConfigurations().detachedConfiguration(project.getDependencies().create(mappings)).getSingleFile();
+        }
+
+        try {
+            File merged;
+
+            try (PhaseProfiler.Phase ignored = profiler.start("merge jars")) {
+                merged = mergeJars(project, version);
             }
-        } else {
-            {
-                Path aToB = getProject().file("remapped/" + a + "To" + capitaliseFirstCharacter(b) + ".tiny").toPath();
-                Files.createDirectories(aToB.getParent());
 
-                try (BufferedWriter writer = Files.newBufferedWriter(aToB)) {
-                    new TinyV2BiNamespaceMappingsWriter(writer, a, b).write(mappings);
+            String key = FileCache.key(mappings, FileCache.hash(mappingsJar), version, merged.getName(), getStitchVersion(), String.valueOf(FieldNameProposer.VERSION));
+
+            // Proposing field names scans every class in the merged jar, so only do it once per mappings build. The
+            // mappings are streamed out of the archive and the proposals filled in on the way, straight into the cache
+            Path proposed = FileCache.create(project, "mappings").getVerified(key + ".tiny", output -> {
+                try (PhaseProfiler.Phase ignored = profiler.start("propose field names"); ZipFile archive = new ZipFile(mappingsJar)) {
+                    Map<EntryTriple, String> proposals = new FieldNameFinder().findNames(merged);
+
+                    ZipEntry entry = archive.getEntry("mappings/mappings.tiny");
+
+                    if (entry == null) {
+                        throw new IOException(mappingsJar + " does not contain mappings/mappings.tiny");
+                    }
+
+                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(archive.getInputStream(entry), StandardCharsets.UTF_8));
+                         BufferedWriter writer = Files.newBufferedWriter(output)) {
+                        int count = FieldNameProposer.propose(reader, writer, proposals);
+                        project.getLogger().info("Proposed {} field names", count);
+                    }
                 }
+            });
+
+            return new Pair<>(proposed, merged);
+        } catch (IOException exception) {
+            throw exception;
+        } catch (Exception exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    private static File mergeJars(Project project, String version) throws Exception {
+        ArtifactProvider<ArtifactIdentifier> provider = MinecraftRepo.create(project);
+        File client = provider.getArtifact(Artifact.from("net.minecraft:client:" + version)).optionallyCache(null).asFile();
+        File server = provider.getArtifact(Artifact.from("net.minecraft:server:" + version)).optionallyCache(null).asFile();
+        String key = FileCache.key(version, FileCache.hash(client), FileCache.hash(server));
+
+        return FileCache.create(project, "merged").get(key + ".jar", merged -> {
+            String[] mergeArgs = {
+                    client.getAbsolutePath(),
+                    server.getAbsolutePath(),
+                    merged.toAbsolutePath().toString()
+            };
+
+            new CommandMergeJar().run(mergeArgs);
+        }).toFile();
+    }
+
+    private static String getStitchVersion() throws IOException {
+        Package stitch = FieldNameFinder.class.getPackage();
+
+        if (stitch != null && stitch.getImplementationVersion() != null) {
+            return stitch.getImplementationVersion();
+        }
+
+        // Not every Stitch build has a versioned manifest, so fall back to the jar itself
+        try {
+            return FileCache.hash(new File(FieldNameFinder.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+        } catch (URISyntaxException exception) {
+            throw new IOException(exception);
+        }
+    }
+
+    /**
+     * Resolves the compile and runtime class paths of the project, leniently. An artifact on both, even in another
+     * version, is only kept once, compile first
+     */
+    private Set<File> getDependencies() {
+        // Keep the order stable, the class path is an input of the task
+        Set<File> files = new LinkedHashSet<>();
+        Set<String> artifacts = new HashSet<>();
+
+        for (String name : new String[]{JavaPlugin.COMPILE_CLASSPATH_CONFIGURATION_NAME, JavaPlugin.RUNTIME_CLASSPATH_CONFIGURATION_NAME}) {
+            Configuration configuration = getProject().getConfigurations().findByName(name);
+
+            if (configuration == null) {
+                continue;
             }
 
-            {
-                Path bToA = getProject().file("remapped/" + b + "To" + capitaliseFirstCharacter(a) + ".tiny").toPath();
-                Files.createDirectories(bToA.getParent());
+            ArtifactCollection collection = configuration.getIncoming().artifactView(view -> view.lenient(true)).getArtifacts();
 
-                try (BufferedWriter writer = Files.newBufferedWriter(bToA)) {
-                    new TinyV2BiNamespaceMappingsWriter(writer, b, a).write(mappings.reverse());
+            for (ResolvedArtifactResult artifact : collection) {
+                if (artifacts.add(getArtifactKey(artifact))) {
+                    files.add(artifact.getFile());
                 }
             }
+
+            for (Throwable failure : collection.getFailures()) {
+                getLogger().warn("Could not resolve part of {}: {}", name, failure.getMessage());
+            }
         }
+
+        return files;
+    }
+
+    private static String getArtifactKey(ResolvedArtifactResult artifact) {
+        ComponentIdentifier component = artifact.getId().getComponentIdentifier();
+
+        if (component instanceof ModuleComponentIdentifier) {
+            ModuleComponentIdentifier module = (ModuleComponentIdentifier) component;
+            // The file name tells apart the classifiers of a module, but also holds its version
+            return module.getGroup() + ":" + module.getModule() + ":" + artifact.getFile().getName().replace(module.getVersion(), "");
+        }
+
+        return artifact.getFile().getAbsolutePath();
     }
 
-    private static String capitaliseFirstCharacter(String s) {
-        if (s.length() > 0) {
-            return Character.toUpperCase(s.charAt(0)) + s.substring(1);
-        } else {
-            return s;
+    protected static class Pass {
+
+        private final String name;
+        private final Path input;
+        private final Path output;
+        private final List<Path> classPath;
+        private final boolean optional;
+
+        /**
+         * @param name      The name of the pass, for logging
+         * @param input     The source tree
+         * @param output    Where to write the rewritten tree
+         * @param classPath The class path to rewrite with
+         * @param optional  Whether failing to rewrite should only be logged
+         */
+        public Pass(String name, Path input, Path output, List<Path> classPath, boolean optional) {
+            this.name = name;
+            this.input = input;
+            this.output = output;
+            this.classPath = classPath;
+            this.optional = optional;
         }
     }
 }
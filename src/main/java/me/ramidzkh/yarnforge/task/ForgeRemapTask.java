@@ -16,30 +16,66 @@
 
 package me.ramidzkh.yarnforge.task;
 
-import codechicken.diffpatch.cli.DiffOperation;
 import codechicken.diffpatch.util.LoggingOutputStream;
 import codechicken.diffpatch.util.Utils;
-import codechicken.diffpatch.util.archiver.ArchiveFormat;
-import org.cadixdev.mercury.Mercury;
+import me.ramidzkh.yarnforge.util.FileCache;
+import me.ramidzkh.yarnforge.util.ParallelDiff;
+import me.ramidzkh.yarnforge.util.PhaseProfiler;
+import org.gradle.api.GradleException;
 import org.gradle.api.Project;
-import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.logging.LogLevel;
 import org.gradle.api.plugins.JavaPlugin;
-import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.options.Option;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class ForgeRemapTask extends BaseRemappingTask {
+@CacheableTask
+public abstract class ForgeRemapTask extends BaseRemappingTask {
 
     private boolean skipClean;
+    private boolean patchesZip;
 
     public ForgeRemapTask() {
         setDescription("(Forge specific) Remap sources and patches");
+        setDefaultMaxHeap("3G");
+
+        Project project = getProject();
+        Directory dir = project.getLayout().getProjectDirectory();
+        getMainSources().convention(dir.dir("src/main/java"));
+        getTestSources().convention(dir.dir("src/test/java"));
+        getLauncherSources().convention(dir.dir("src/fmllauncher/java"));
+        getCleanSources().convention(dir.dir("projects/clean/src/main/java"));
+        getPatchedSources().convention(dir.dir("projects/forge/src/main/java"));
+
+        // The Forge project may not be evaluated yet, so only look its configurations up when they are needed
+        getCompileClasspath().from((Callable<Configuration>) () -> project.project(":forge").getConfigurations().getByName(JavaPlugin.COMPILE_CLASSPATH_CONFIGURATION_NAME));
+        getTestCompileClasspath().from((Callable<Configuration>) () -> project.project(":forge").getConfigurations().getByName(JavaPlugin.TEST_COMPILE_CLASSPATH_CONFIGURATION_NAME));
+    }
+
+    @Input
+    public boolean isSkipClean() {
+        return skipClean;
     }
 
     @Option(description = "Skip mapping the clean project", option = "skip-clean")
@@ -47,96 +83,179 @@ public class ForgeRemapTask extends BaseRemappingTask {
         this.skipClean = skip;
     }
 
-    @TaskAction
-    public void doTask() throws Exception {
+    @Input
+    public boolean isPatchesZip() {
+        return patchesZip;
+    }
+
+    @Option(description = "Also archive the patches into remapped/patches.zip", option = "patches-zip")
+    public void setPatchesZip(boolean patchesZip) {
+        this.patchesZip = patchesZip;
+    }
+
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getMainSources();
+
+    /**
+     * @return The test sources, which may not exist
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getTestSources();
+
+    /**
+     * @return The FML launcher sources, which the other source sets are resolved against. They may not exist
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getLauncherSources();
+
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getCleanSources();
+
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getPatchedSources();
+
+    @Classpath
+    public abstract ConfigurableFileCollection getCompileClasspath();
+
+    @Classpath
+    public abstract ConfigurableFileCollection getTestCompileClasspath();
+
+    @Override
+    protected void remap() throws Exception {
+        if (!getTargets().isEmpty()) {
+            // The Minecraft sources would have to move between packages for each target, which renaming cannot do
+            throw new GradleException("--target is not supported when remapping Forge");
+        }
+
         Project project = getProject();
-        Path dir = project.getProjectDir().toPath();
+        Path remapped = getOutputDirectory().get().getAsFile().toPath();
 
-        ConfigurationContainer configurations = project.project(":forge").getConfigurations();
-        List<Path> compileClasspath = configurations.getByName(JavaPlugin.COMPILE_CLASSPATH_CONFIGURATION_NAME).getFiles().stream().map(File::toPath).collect(Collectors.toList());
-        List<Path> testCompileClasspath = configurations.getByName(JavaPlugin.TEST_COMPILE_CLASSPATH_CONFIGURATION_NAME).getFiles().stream().map(File::toPath).collect(Collectors.toList());
+        List<Path> compileClasspath = getCompileClasspath().getFiles().stream().map(File::toPath).collect(Collectors.toList());
+        List<Path> testCompileClasspath = getTestCompileClasspath().getFiles().stream().map(File::toPath).collect(Collectors.toList());
 
-        compileClasspath.add(dir.resolve("src/fmllauncher/java"));
+        compileClasspath.add(getLauncherSources().get().getAsFile().toPath());
         testCompileClasspath.removeAll(compileClasspath);
 
-        Path main = dir.resolve("src/main/java");
-        Path test = dir.resolve("src/test/java");
-        Path clean = dir.resolve("projects/clean/src/main/java");
-        Path patched = dir.resolve("projects/forge/src/main/java");
+        Path main = getMainSources().get().getAsFile().toPath();
+        Path test = getTestSources().get().getAsFile().toPath();
+        Path clean = getCleanSources().get().getAsFile().toPath();
+        Path patched = getPatchedSources().get().getAsFile().toPath();
 
-        Path mappedClean = dir.resolve("remapped/clean");
-        Path mappedPatched = dir.resolve("remapped/patched");
-        Path mappedMain = dir.resolve("remapped/main");
-        Path mappedTest = dir.resolve("remapped/test");
-        Path patches = dir.resolve("remapped/patches");
-        Path patchesArchive = dir.resolve("remapped/patches.zip");
+        Path mappedClean = remapped.resolve("clean");
+        Path mappedPatched = remapped.resolve("patched");
+        Path mappedMain = remapped.resolve("main");
+        Path mappedTest = remapped.resolve("test");
+        Path patches = remapped.resolve("patches");
+        Path patchesArchive = remapped.resolve("patches.zip");
 
-        Mercury mercury = createRemapper();
-        mercury.getClassPath().addAll(compileClasspath);
+        List<Pass> passes = new ArrayList<>();
+
+        {
+            List<Path> classPath = new ArrayList<>(compileClasspath);
+            classPath.add(patched);
+            passes.add(new Pass("main", main, mappedMain, classPath, false));
+        }
+
+        {
+            List<Path> classPath = new ArrayList<>(compileClasspath);
+            classPath.add(patched);
+            classPath.add(main);
+            classPath.addAll(testCompileClasspath);
+            passes.add(new Pass("test", test, mappedTest, classPath, true));
+        }
 
         {
-            mercury.getClassPath().add(patched);
+            List<Path> classPath = new ArrayList<>(compileClasspath);
+            classPath.add(main);
+            passes.add(new Pass("patched", patched, mappedPatched, classPath, false));
+        }
+
+        Path snapshot = createMcpToYarnSnapshot();
 
-            {
-                project.getLogger().lifecycle(":remapping main");
-                mercury.rewrite(main, mappedMain);
-                System.gc();
+        // The clean tree is vanilla Minecraft, so its remapped form is the same on every branch using the same
+        // Minecraft, MCP and Yarn versions, and can be shared through the cache
+        FileCache cleanCache = FileCache.create(project, "clean");
+        String cleanKey = getCleanKey(clean, compileClasspath);
+        Path cachedClean = cleanCache.find(cleanKey);
+
+        if (cachedClean != null) {
+            project.getLogger().lifecycle(":restoring clean");
+
+            try (PhaseProfiler.Phase ignored = getProfiler().start("restore clean")) {
+                deleteFolder(mappedClean);
+                copyFolder(cachedClean, mappedClean);
             }
+        } else if (!skipClean) {
+            deleteFolder(mappedClean);
+            passes.add(new Pass("clean", clean, mappedClean, compileClasspath, false));
+        } else if (Files.exists(mappedClean)) {
+            project.getLogger().warn("Skipping clean, {} may be stale", mappedClean);
+        }
 
-            {
-                project.getLogger().lifecycle(":remapping test");
-                mercury.getClassPath().add(main);
-                mercury.getClassPath().addAll(testCompileClasspath);
-
-                try {
-                    mercury.rewrite(test, mappedTest);
-                    System.gc();
-                } catch (RuntimeException ex) {
-                    project.getLogger().lifecycle("failed to remap test!");
-
-                    try {
-                        Utils.deleteFolder(mappedTest);
-                    } catch (IOException ignored) {
-                    }
-                }
-
-                mercury.getClassPath().remove(main);
-                mercury.getClassPath().removeAll(testCompileClasspath);
+        // None of the passes read each other's output, so they can all run at once
+        rewrite(snapshot, passes);
+
+        if (cachedClean == null && !skipClean) {
+            try (PhaseProfiler.Phase ignored = getProfiler().start("cache clean")) {
+                cleanCache.get(cleanKey, output -> copyFolder(mappedClean, output));
             }
+        }
 
-            mercury.getClassPath().remove(patched);
+        try (PhaseProfiler.Phase ignored = getProfiler().start("diff")) {
+            project.getLogger().lifecycle(":diffing");
+            int changed = ParallelDiff.diff(mappedClean, mappedPatched, patches, getTemporaryDir().toPath().resolve("diff"), getThreads(), () -> new LoggingOutputStream(getLogger(), LogLevel.LIFECYCLE));
+            project.getLogger().lifecycle(":diffed {} changed files", changed);
         }
 
-        {
-            project.getLogger().lifecycle(":remapping patched");
-            mercury.getClassPath().add(main);
-            mercury.rewrite(patched, mappedPatched);
-            System.gc();
-            mercury.getClassPath().remove(main);
+        if (patchesZip) {
+            project.getLogger().lifecycle(":archiving");
+
+            try (PhaseProfiler.Phase ignored = getProfiler().start("archive patches")) {
+                ParallelDiff.zip(patches, patchesArchive);
+            }
+        } else {
+            // Do not leave the archive of an earlier run behind, next to newer patches
+            Files.deleteIfExists(patchesArchive);
         }
+    }
+
+    private String getCleanKey(Path clean, List<Path> classPath) throws IOException {
+        List<String> jars = new ArrayList<>();
 
-        if (!skipClean) {
-            project.getLogger().lifecycle(":remapping clean");
-            mercury.rewrite(clean, mappedClean);
-            System.gc();
+        // Only libraries can affect how vanilla code resolves, not the Forge sources on the class path. A jar can be
+        // rebuilt under the same name, e.g. a snapshot, so its contents count too
+        for (Path path : classPath) {
+            if (Files.isRegularFile(path)) {
+                jars.add(path.getFileName() + "@" + FileCache.hash(path.toFile()));
+            }
         }
 
-        {
-            project.getLogger().lifecycle(":diffing");
-            DiffOperation.builder()
-                    .logTo(new LoggingOutputStream(getLogger(), LogLevel.LIFECYCLE))
-                    .aPath(mappedClean)
-                    .bPath(mappedPatched)
-                    .outputPath(patchesArchive, ArchiveFormat.ZIP).build().operate();
+        Collections.sort(jars);
+        return FileCache.key(FileCache.hashDirectory(clean), getMappingsKey(), String.valueOf(isMixin()), String.join(File.pathSeparator, jars));
+    }
+
+    private static void deleteFolder(Path folder) throws IOException {
+        if (Files.exists(folder)) {
+            Utils.deleteFolder(folder);
         }
+    }
 
-        {
-            project.getLogger().lifecycle(":extracting");
+    private static void copyFolder(Path from, Path to) throws IOException {
+        List<Path> files;
+
+        try (Stream<Path> stream = Files.walk(from)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
 
-            project.copy(copy -> {
-                copy.from(project.zipTree(patchesArchive));
-                copy.into(patches);
-            });
+        for (Path file : files) {
+            Path target = to.resolve(from.relativize(file).toString());
+            Files.createDirectories(target.getParent());
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 }
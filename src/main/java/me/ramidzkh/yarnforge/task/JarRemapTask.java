@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.task;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.options.Option;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+@CacheableTask
+public abstract class JarRemapTask extends BaseRemappingTask {
+
+    public JarRemapTask() {
+        setDescription("Remap the classes of a jar");
+        getOutputDirectory().convention(getProject().getLayout().getBuildDirectory().dir("yarnforge/" + getName()));
+    }
+
+    /**
+     * @return The jar to remap. Defaults to the jar of the project
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract RegularFileProperty getInput();
+
+    @Option(description = "The jar to remap", option = "input")
+    public void setInputPath(String input) {
+        getInput().set(getProject().file(input));
+    }
+
+    @Override
+    protected void remap() throws Exception {
+        if (!getTargets().isEmpty()) {
+            throw new GradleException("--target is not supported when remapping jars");
+        }
+
+        Path input = getInput().get().getAsFile().toPath();
+        Path output = getOutputDirectory().get().getAsFile().toPath().resolve(input.getFileName());
+        Path snapshot = createMcpToYarnSnapshot();
+
+        // The classes of the jar extend each other too
+        List<File> classpath = new ArrayList<>();
+        classpath.add(input.toFile());
+        classpath.addAll(getClasspath().getFiles());
+
+        Files.createDirectories(output.getParent());
+        remapJar(snapshot, input, output, classpath);
+        getLogger().lifecycle("Remapped {} to {}", input.getFileName(), output);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.task;
+
+import me.ramidzkh.yarnforge.util.SoftPool;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps mappings, and anything else which is expensive to load, around between the builds of a daemon. Idle values
+ * live in a {@link SoftPool} shared by every build, as long as the class loader of the plugin is. Each build leases
+ * values out of it, and whatever a build still holds when it ends is dropped rather than put back, so nothing is kept
+ * strongly reachable past the end of a build
+ */
+public abstract class MappingsService implements BuildService<MappingsService.Parameters>, AutoCloseable {
+
+    public static final String NAME = "yarnforgeMappings";
+    public static final int DEFAULT_MAX_IDLE = 4;
+
+    private static final SoftPool POOL = new SoftPool(DEFAULT_MAX_IDLE);
+
+    private final Set<Lease<?>> leases = ConcurrentHashMap.newKeySet();
+
+    public MappingsService() {
+        POOL.setMaxSize(getParameters().getMaxIdle().getOrElse(DEFAULT_MAX_IDLE));
+    }
+
+    /**
+     * Takes a value out of the pool, or loads it if there is none. The value is only used by the holder of the lease
+     * until it is closed, so it may be changed as long as it stays valid for its key
+     *
+     * @param key    The key of the value, which must tell apart values of different types
+     * @param loader Loads the value
+     * @return The lease of the value
+     */
+    public <T> Lease<T> acquire(String key, Loader<T> loader) throws IOException {
+        @SuppressWarnings("unchecked")
+        T value = (T) POOL.take(key);
+
+        if (value == null) {
+            value = loader.load();
+        }
+
+        Lease<T> lease = new Lease<>(this, key, value);
+        leases.add(lease);
+        return lease;
+    }
+
+    private void release(Lease<?> lease) {
+        if (leases.remove(lease)) {
+            POOL.put(lease.key, lease.value);
+        }
+    }
+
+    /**
+     * Drops whatever is still leased, probably left half-way through by a failed task. The pool itself is left as is,
+     * as it is meant to outlive the build, until the daemon runs low on heap or the plugin is loaded again
+     */
+    @Override
+    public void close() {
+        leases.clear();
+    }
+
+    public interface Parameters extends BuildServiceParameters {
+
+        /**
+         * @return How many idle values are kept at most
+         */
+        Property<Integer> getMaxIdle();
+    }
+
+    @FunctionalInterface
+    public interface Loader<T> {
+
+        T load() throws IOException;
+    }
+
+    public static class Lease<T> implements AutoCloseable {
+
+        private final MappingsService service;
+        private final String key;
+        private final T value;
+
+        Lease(MappingsService service, String key, T value) {
+            this.service = service;
+            this.key = key;
+            this.value = value;
+        }
+
+        public T get() {
+            return value;
+        }
+
+        /**
+         * Puts the value back into the pool. It must not be used anymore
+         */
+        @Override
+        public void close() {
+            service.release(this);
+        }
+    }
+}
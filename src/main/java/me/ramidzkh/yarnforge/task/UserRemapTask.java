@@ -16,29 +16,235 @@
 
 package me.ramidzkh.yarnforge.task;
 
-import org.cadixdev.mercury.Mercury;
+import codechicken.diffpatch.util.Utils;
+import me.ramidzkh.yarnforge.util.FileCache;
+import me.ramidzkh.yarnforge.util.HierarchyIndex;
+import me.ramidzkh.yarnforge.util.PhaseProfiler;
+import me.ramidzkh.yarnforge.util.SourceIndex;
+import me.ramidzkh.yarnforge.util.SourceManifest;
+import me.ramidzkh.yarnforge.util.SourceShards;
 import org.gradle.api.Project;
-import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.LocalState;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.options.Option;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-public class UserRemapTask extends BaseRemappingTask {
+@CacheableTask
+public abstract class UserRemapTask extends BaseRemappingTask {
 
-    @TaskAction
-    public void doTask() throws Exception {
+    private boolean prune;
+    private boolean pruneClasspath;
+
+    public UserRemapTask() {
+        getSources().convention(getProject().getLayout().getProjectDirectory().dir("src/main/java"));
+        getManifest().convention(getProject().getLayout().getBuildDirectory().file("yarnforge/" + getName() + ".manifest"));
+    }
+
+    @Input
+    public boolean isPrune() {
+        return prune;
+    }
+
+    @Option(description = "Only build mappings for the classes the sources can reach", option = "prune")
+    public void setPrune(boolean prune) {
+        this.prune = prune;
+    }
+
+    @Input
+    public boolean isPruneClasspath() {
+        return pruneClasspath;
+    }
+
+    @Option(description = "Leave the jars the sources cannot reach out of the class path they are resolved against", option = "prune-classpath")
+    public void setPruneClasspath(boolean pruneClasspath) {
+        this.pruneClasspath = pruneClasspath;
+    }
+
+    /**
+     * @return The sources to remap. Defaults to <code>src/main/java</code>
+     */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getSources();
+
+    /**
+     * @return What the last run remapped, so the next one only remaps what changed. Not cached, so a run restoring the
+     * output from the build cache is followed by a full remap
+     */
+    @LocalState
+    public abstract RegularFileProperty getManifest();
+
+    @Override
+    protected void remap() throws Exception {
         Project project = getProject();
+        Path input = getSources().get().getAsFile().toPath();
+        Path output = getOutputDirectory().get().getAsFile().toPath();
+        Path manifestPath = getManifest().get().getAsFile().toPath();
+        List<File> files = new ArrayList<>(getClasspath().getFiles());
+        List<String> classPathNames = new ArrayList<>();
+
+        // A dependency can change in place, e.g. a rebuilt local jar or the classes of another project, and that changes
+        // how unchanged files resolve
+        try (PhaseProfiler.Phase ignored = getProfiler().start("hash class path")) {
+            for (File file : files) {
+                String hash = file.isFile() ? FileCache.hash(file) : file.isDirectory() ? FileCache.hashDirectory(file.toPath()) : "";
+                classPathNames.add(file.getAbsolutePath() + "@" + hash);
+            }
+        }
+
+        Collections.sort(classPathNames);
+
+        SourceIndex index;
+
+        try (PhaseProfiler.Phase ignored = getProfiler().start("scan sources")) {
+            index = SourceIndex.scan(input);
+        }
+
+        if (pruneClasspath) {
+            try (PhaseProfiler.Phase ignored = getProfiler().start("prune class path")) {
+                // The identifiers of the sources include the simple name of every type they mention
+                Set<String> identifiers = index.getIdentifiers();
+                List<File> reachable = HierarchyIndex.findReachable(FileCache.create(project, "hierarchy"), files, (jar, klass) -> identifiers.contains(getSimpleName(klass)), getThreads());
+                project.getLogger().lifecycle(":resolving against {} of {} class path entries", reachable.size(), files.size());
+                files = reachable;
+            }
+        }
+
+        List<Path> classPath = new ArrayList<>();
+
+        for (File file : files) {
+            classPath.add(file.toPath());
+        }
+
+        if (!getTargets().isEmpty()) {
+            remapTargets(index, output, manifestPath, classPath);
+            return;
+        }
+
+        Path snapshot = createMcpToYarnSnapshot(prune ? index.getIdentifiers() : null);
+
+        // Pruning only ever drops classes the sources cannot reach, and files which now reach more classes have changed,
+        // so the outputs of unchanged files stay valid when the pruned mappings change
+        String fingerprint = FileCache.key(getMappingsKey(), String.valueOf(isMixin()), String.valueOf(pruneClasspath), String.join(File.pathSeparator, classPathNames));
+        SourceManifest previous = SourceManifest.read(manifestPath);
+
+        // Whatever happens, a run which does not finish must not be mistaken for an up to date one
+        Files.deleteIfExists(manifestPath);
+
+        if (previous == null || !previous.getFingerprint().equals(fingerprint)) {
+            // The output also holds the exported mappings, so only the outputs of sources which are gone are deleted.
+            // Without a manifest, there is no telling which those are
+            if (previous != null) {
+                deleteRemoved(index, previous, output);
+            }
+
+            rewrite(snapshot, Collections.singletonList(new Pass("main", input, output, classPath, false)));
+        } else {
+            rewriteChanged(snapshot, index, previous, output, classPath);
+        }
+
+        SourceManifest.of(fingerprint, index).write(manifestPath);
+    }
+
+    /**
+     * Remaps the sources to intermediary names once, then renames them to every target. Every run remaps all of the
+     * sources, so nothing is left for an incremental run to go by
+     */
+    private void remapTargets(SourceIndex index, Path output, Path manifestPath, List<Path> classPath) throws Exception {
+        Files.deleteIfExists(manifestPath);
+
+        Path snapshot = createMcpToYarnSnapshot(prune ? index.getIdentifiers() : null, "intermediary");
+        Path intermediary = getTemporaryDir().toPath().resolve("intermediary");
+
+        if (Files.exists(intermediary)) {
+            Utils.deleteFolder(intermediary);
+        }
 
         try {
-            Mercury mercury = createRemapper();
+            rewrite(snapshot, Collections.singletonList(new Pass("main", index.getRoot(), intermediary, classPath, false)));
+            renameTargets(intermediary, output);
+        } finally {
+            if (Files.exists(intermediary)) {
+                Utils.deleteFolder(intermediary);
+            }
+        }
+    }
+
+    /**
+     * Deletes the outputs of the sources which were remapped by the last run, but are gone now
+     *
+     * @return The names of the sources which are gone
+     */
+    private static Set<String> deleteRemoved(SourceIndex index, SourceManifest previous, Path output) throws IOException {
+        Set<String> removed = new HashSet<>(previous.getHashes().keySet());
+        removed.removeAll(index.getFiles().keySet());
+
+        for (String name : removed) {
+            Files.deleteIfExists(output.resolve(name));
+        }
+
+        return removed;
+    }
+
+    private static String getSimpleName(String klass) {
+        return klass.substring(Math.max(klass.lastIndexOf('/'), klass.lastIndexOf('$')) + 1);
+    }
+
+    /**
+     * Rewrites only the files which changed since the last run, and the files which depend on them. The output of
+     * every other file is left as it is
+     */
+    private void rewriteChanged(Path snapshot, SourceIndex index, SourceManifest previous, Path output, List<Path> classPath) throws Exception {
+        Project project = getProject();
+        Set<String> changed = new HashSet<>();
 
-            for (File file : getAllDependencies()) {
-                mercury.getClassPath().add(file.toPath());
+        for (SourceIndex.SourceFile file : index.getFiles().values()) {
+            if (!file.hash.equals(previous.getHashes().get(file.name)) || !Files.isRegularFile(output.resolve(file.name))) {
+                changed.add(file.name);
             }
+        }
+
+        Set<String> removed = deleteRemoved(index, previous, output);
+        Set<String> stale = index.getDependents(changed, removed);
+
+        if (stale.isEmpty()) {
+            project.getLogger().lifecycle(":remapping skipped, no sources changed");
+            return;
+        }
+
+        project.getLogger().lifecycle(":remapping {} of {} files", stale.size(), index.getFiles().size());
+
+        // Stage the stale files alone. The rest of the tree stays resolvable through the class path
+        Path staging = getTemporaryDir().toPath().resolve("staging");
+
+        if (Files.exists(staging)) {
+            Utils.deleteFolder(staging);
+        }
+
+        SourceShards.stage(index.getRoot(), stale, staging);
 
-            project.getLogger().lifecycle(":remapping");
-            mercury.rewrite(project.file("src/main/java").toPath(), project.file("remapped").toPath());
+        List<Path> stagedClassPath = new ArrayList<>(classPath);
+        stagedClassPath.add(index.getRoot());
+
+        try {
+            rewrite(snapshot, Collections.singletonList(new Pass("main", staging, output, stagedClassPath, false)));
         } finally {
-            System.gc();
+            Utils.deleteFolder(staging);
         }
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import com.google.common.io.ByteStreams;
+import org.cadixdev.bombe.asm.jar.ClassProvider;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * A {@link ClassProvider} over the classes of a jar, read through a {@link JarIndex}. Jars it cannot read, such as
+ * ones needing Zip64 extensions, are read through a {@link ZipFile} instead
+ */
+public class ClassIndex implements ClassProvider, Closeable {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final JarIndex jar;
+    private final ZipFile zip;
+    private final Map<String, String> classes;
+
+    private ClassIndex(JarIndex jar, ZipFile zip, Map<String, String> classes) {
+        this.jar = jar;
+        this.zip = zip;
+        this.classes = classes;
+    }
+
+    /**
+     * Indexes every class in a jar
+     *
+     * @param file The jar. If it is not a jar at all, the index is empty
+     * @return The index, which must be closed when it is no longer needed
+     */
+    public static ClassIndex open(File file) throws IOException {
+        Map<String, String> classes = new HashMap<>();
+        JarIndex jar;
+
+        try {
+            jar = JarIndex.open(file.toPath());
+        } catch (ZipException exception) {
+            // Not something we can read ourselves, let the JDK deal with it
+            ZipFile zip;
+
+            try {
+                zip = new ZipFile(file);
+            } catch (ZipException notAZip) {
+                return new ClassIndex(null, null, classes);
+            }
+
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                add(classes, entries.nextElement().getName());
+            }
+
+            return new ClassIndex(null, zip, classes);
+        }
+
+        for (JarIndex.Entry entry : jar.getEntries()) {
+            add(classes, entry.name);
+        }
+
+        return new ClassIndex(jar, null, classes);
+    }
+
+    private static void add(Map<String, String> classes, String entry) {
+        if (entry.endsWith(CLASS_SUFFIX) && !entry.startsWith("META-INF/")) {
+            classes.putIfAbsent(entry.substring(0, entry.length() - CLASS_SUFFIX.length()), entry);
+        }
+    }
+
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    @Override
+    public byte[] get(String klass) {
+        String entry = classes.get(klass);
+
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            if (jar != null) {
+                return jar.read(jar.getEntry(entry));
+            }
+
+            try (InputStream stream = zip.getInputStream(zip.getEntry(entry))) {
+                return ByteStreams.toByteArray(stream);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (jar != null) {
+            jar.close();
+        }
+
+        if (zip != null) {
+            zip.close();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A compact, read-only mapping between two namespaces of a {@link TinyTree}.
+ * <p>
+ * Every name and descriptor is kept once in a shared {@link StringPool}, and classes, fields and methods are rows of
+ * primitive <code>int</code> tables referring to it. The members of a class are contiguous, so looking one up is a
+ * scan over a few ints rather than a hash lookup per member
+ */
+public class CompactMappings {
+
+    private final StringPool pool;
+    private final int[] classesByName;
+    private final int[] classNames;
+    private final int[] fieldStarts;
+    private final int[] fields;
+    private final int[] methodStarts;
+    private final int[] methods;
+
+    private CompactMappings(StringPool pool, int[] classesByName, int[] classNames, int[] fieldStarts, int[] fields, int[] methodStarts, int[] methods) {
+        this.pool = pool;
+        this.classesByName = classesByName;
+        this.classNames = classNames;
+        this.fieldStarts = fieldStarts;
+        this.fields = fields;
+        this.methodStarts = methodStarts;
+        this.methods = methods;
+    }
+
+    /**
+     * Copies two namespaces of a tree. The tree is not needed anymore afterwards
+     *
+     * @param tree The tree
+     * @param a    The obfuscated namespace
+     * @param b    The de-obfuscated namespace
+     * @return The mappings
+     */
+    public static CompactMappings of(TinyTree tree, String a, String b) {
+        Collection<ClassDef> classDefs = tree.getClasses();
+        StringPool pool = new StringPool();
+        int[] classNames = new int[classDefs.size() * 2];
+        int[] fieldStarts = new int[classDefs.size() + 1];
+        int[] methodStarts = new int[classDefs.size() + 1];
+        IntList fields = new IntList();
+        IntList methods = new IntList();
+        int klass = 0;
+
+        for (ClassDef classDef : classDefs) {
+            classNames[klass * 2] = pool.intern(classDef.getName(a));
+            classNames[klass * 2 + 1] = pool.intern(classDef.getName(b));
+            fieldStarts[klass] = fields.size;
+            methodStarts[klass] = methods.size;
+
+            // Fields are matched by name only, as obfuscation mappings do not always know their types
+            for (FieldDef fieldDef : classDef.getFields()) {
+                fields.add(pool.intern(fieldDef.getName(a)));
+                fields.add(pool.intern(fieldDef.getName(b)));
+            }
+
+            for (MethodDef methodDef : classDef.getMethods()) {
+                methods.add(pool.intern(methodDef.getName(a)));
+                methods.add(pool.intern(methodDef.getDescriptor(a)));
+                methods.add(pool.intern(methodDef.getName(b)));
+            }
+
+            klass++;
+        }
+
+        fieldStarts[klass] = fields.size;
+        methodStarts[klass] = methods.size;
+        pool.trim();
+
+        int[] classesByName = new int[pool.size()];
+        Arrays.fill(classesByName, -1);
+
+        for (int i = 0; i < klass; i++) {
+            classesByName[classNames[i * 2]] = i;
+        }
+
+        return new CompactMappings(pool, classesByName, classNames, fieldStarts, fields.toArray(), methodStarts, methods.toArray());
+    }
+
+    /**
+     * @param name The obfuscated name of a class
+     * @return The id of the class, or <code>-1</code> if it is not mapped
+     */
+    public int getClass(String name) {
+        int id = pool.find(name);
+        return id < 0 ? -1 : classesByName[id];
+    }
+
+    /**
+     * @param klass The id of a class
+     * @return The de-obfuscated name of the class
+     */
+    public String getClassName(int klass) {
+        return pool.get(classNames[klass * 2 + 1]);
+    }
+
+    /**
+     * @param klass The id of a class
+     * @param name  The obfuscated name of a field declared by the class
+     * @return The de-obfuscated name of the field, or <code>null</code> if it is not mapped
+     */
+    public String getFieldName(int klass, String name) {
+        int id = pool.find(name);
+
+        if (id < 0) {
+            return null;
+        }
+
+        for (int i = fieldStarts[klass]; i < fieldStarts[klass + 1]; i += 2) {
+            if (fields[i] == id) {
+                return pool.get(fields[i + 1]);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param klass      The id of a class
+     * @param name       The obfuscated name of a method declared by the class
+     * @param descriptor The obfuscated descriptor of the method
+     * @return The de-obfuscated name of the method, or <code>null</code> if it is not mapped
+     */
+    public String getMethodName(int klass, String name, String descriptor) {
+        int id = pool.find(name);
+        int descriptorId = id < 0 ? -1 : pool.find(descriptor);
+
+        if (descriptorId < 0) {
+            return null;
+        }
+
+        for (int i = methodStarts[klass]; i < methodStarts[klass + 1]; i += 3) {
+            if (methods[i] == id && methods[i + 1] == descriptorId) {
+                return pool.get(methods[i + 2]);
+            }
+        }
+
+        return null;
+    }
+
+    private static class IntList {
+
+        int[] values = new int[1024];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A thread-safe replacement for {@link org.cadixdev.bombe.analysis.CascadingInheritanceProvider}, which asks each
+ * installed provider in turn
+ */
+public class ConcurrentCascadingInheritanceProvider implements InheritanceProvider {
+
+    private final List<InheritanceProvider> providers = new CopyOnWriteArrayList<>();
+
+    public ConcurrentCascadingInheritanceProvider install(InheritanceProvider provider) {
+        providers.add(provider);
+        return this;
+    }
+
+    @Override
+    public Optional<ClassInfo> provide(String klass) {
+        for (InheritanceProvider provider : providers) {
+            Optional<ClassInfo> info = provider.provide(klass);
+
+            if (info.isPresent()) {
+                return info;
+            }
+        }
+
+        return Optional.empty();
+    }
+}
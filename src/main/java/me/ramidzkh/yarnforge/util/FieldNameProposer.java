@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import net.fabricmc.mappings.EntryTriple;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fills in field names proposed by Stitch while streaming Tiny mappings, in either the v1 or the v2 format, without
+ * loading them. A field gets the proposed name when its <code>named</code> name is missing or still the same as its
+ * <code>intermediary</code> name
+ */
+public class FieldNameProposer {
+
+    /**
+     * The version of the proposing rules. Bump this whenever they change, so mappings proposed by older versions are
+     * not reused
+     */
+    public static final int VERSION = 1;
+
+    private static final String OFFICIAL = "official";
+    private static final String INTERMEDIARY = "intermediary";
+    private static final String NAMED = "named";
+
+    /**
+     * Copies Tiny mappings, filling in the proposed field names
+     *
+     * @param reader    The mappings
+     * @param writer    Where to write the mappings to
+     * @param proposals The proposed names, by the owner, name and descriptor of the field in the <code>official</code>
+     *                  namespace, as found by Stitch's <code>FieldNameFinder</code>
+     * @return The number of fields which were renamed
+     */
+    public static int propose(BufferedReader reader, Writer writer, Map<EntryTriple, String> proposals) throws IOException {
+        String header = reader.readLine();
+
+        if (header == null) {
+            return 0;
+        }
+
+        writeLine(writer, header);
+        String[] columns = header.split("\t");
+        int proposed;
+
+        if (columns[0].equals("v1")) {
+            proposed = proposeV1(reader, writer, Arrays.asList(columns).subList(1, columns.length), proposals);
+        } else if (columns[0].equals("tiny") && columns.length > 1 && columns[1].equals("2")) {
+            proposed = proposeV2(reader, writer, Arrays.asList(columns).subList(3, columns.length), proposals);
+        } else {
+            throw new IOException("Unknown Tiny header " + header);
+        }
+
+        writer.flush();
+        return proposed;
+    }
+
+    /**
+     * <code>FIELD owner descriptor names...</code>, with the owner and descriptor in the first namespace
+     */
+    private static int proposeV1(BufferedReader reader, Writer writer, List<String> namespaces, Map<EntryTriple, String> proposals) throws IOException {
+        int official = namespaces.indexOf(OFFICIAL);
+        int intermediary = namespaces.indexOf(INTERMEDIARY);
+        int named = namespaces.indexOf(NAMED);
+        boolean enabled = official == 0 && named >= 0;
+        int proposed = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            if (enabled && line.startsWith("FIELD\t")) {
+                String[] parts = line.split("\t", -1);
+                String name = parts.length > 3 + official ? parts[3 + official] : null;
+                String proposal = name == null ? null : proposals.get(new EntryTriple(parts[1], name, parts[2]));
+
+                if (proposal != null && shouldPropose(parts, 3 + intermediary, 3 + named, intermediary >= 0)) {
+                    writeLine(writer, replace(parts, 3 + named, proposal));
+                    proposed++;
+                    continue;
+                }
+            }
+
+            writeLine(writer, line);
+        }
+
+        return proposed;
+    }
+
+    /**
+     * <code>c names...</code>, followed by indented <code>f descriptor names...</code>, with the descriptor in the
+     * first namespace
+     */
+    private static int proposeV2(BufferedReader reader, Writer writer, List<String> namespaces, Map<EntryTriple, String> proposals) throws IOException {
+        int official = namespaces.indexOf(OFFICIAL);
+        int intermediary = namespaces.indexOf(INTERMEDIARY);
+        int named = namespaces.indexOf(NAMED);
+        boolean enabled = official == 0 && named >= 0;
+        String owner = null;
+        int proposed = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            if (enabled && line.startsWith("c\t")) {
+                String[] parts = line.split("\t", -1);
+                owner = parts.length > 1 + official ? parts[1 + official] : null;
+            } else if (enabled && owner != null && line.startsWith("\tf\t")) {
+                String[] parts = line.split("\t", -1);
+                String name = parts.length > 3 + official ? parts[3 + official] : null;
+                String proposal = name == null ? null : proposals.get(new EntryTriple(owner, name, parts[2]));
+
+                if (proposal != null && shouldPropose(parts, 3 + intermediary, 3 + named, intermediary >= 0)) {
+                    writeLine(writer, replace(parts, 3 + named, proposal));
+                    proposed++;
+                    continue;
+                }
+            }
+
+            writeLine(writer, line);
+        }
+
+        return proposed;
+    }
+
+    private static boolean shouldPropose(String[] parts, int intermediary, int named, boolean hasIntermediary) {
+        if (parts.length <= named || parts[named].isEmpty()) {
+            return true;
+        }
+
+        return hasIntermediary && parts.length > intermediary && parts[named].equals(parts[intermediary]);
+    }
+
+    private static String replace(String[] parts, int index, String value) {
+        List<String> columns = new ArrayList<>(Arrays.asList(parts));
+
+        while (columns.size() <= index) {
+            columns.add("");
+        }
+
+        columns.set(index, value);
+        return String.join("\t", columns);
+    }
+
+    private static void writeLine(Writer writer, String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.gradle.api.Project;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A size-bounded, content-addressed file cache which is shared between builds and projects. Entries are files or whole
+ * directories, and are published atomically, so concurrent builds either see a complete entry or none at all
+ */
+public class FileCache {
+
+    private static final long DEFAULT_MAX_SIZE = 2048L * 1024 * 1024;
+    private static final long RECENTLY_USED = TimeUnit.HOURS.toMillis(1);
+    private static final long STALE_TEMPORARY = TimeUnit.DAYS.toMillis(1);
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String CHECKSUM_SUFFIX = ".sha256";
+
+    private static final Map<Path, FileHash> HASHES = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final long maxSize;
+
+    public FileCache(Path root, long maxSize) {
+        this.root = root;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates a cache under <code>~/.gradle/caches/yarnforge/&lt;name&gt;</code>. The combined size of all entries
+     * can be bounded with the <code>yarnforge.cacheSize</code> property, in megabytes
+     *
+     * @param project The project
+     * @param name    The name of the cache
+     * @return The cache
+     */
+    public static FileCache create(Project project, String name) {
+        Path root = project.getGradle().getGradleUserHomeDir().toPath().resolve("caches").resolve("yarnforge").resolve(name);
+        Object maxSize = project.findProperty("yarnforge.cacheSize");
+        return new FileCache(root, maxSize == null ? DEFAULT_MAX_SIZE : Long.parseLong(String.valueOf(maxSize)) * 1024 * 1024);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Hashes the contents of a file. Hashes are remembered for as long as the plugin is loaded, and only taken again
+     * once the size or the modification time of the file changes, as the same jars are hashed by several steps of a
+     * build, and by every build
+     *
+     * @param file The file
+     * @return The hex encoded SHA-256 of the file
+     */
+    public static String hash(File file) throws IOException {
+        Path path = file.toPath().toAbsolutePath();
+        // Read before hashing, so a file changing while it is hashed is hashed again the next time
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        FileHash known = HASHES.get(path);
+
+        if (known != null && known.size == attributes.size() && known.modified.equals(attributes.lastModifiedTime())) {
+            return known.hash;
+        }
+
+        String hash = com.google.common.io.Files.asByteSource(file).hash(Hashing.sha256()).toString();
+        HASHES.put(path, new FileHash(attributes.size(), attributes.lastModifiedTime(), hash));
+        return hash;
+    }
+
+    /**
+     * Hashes some bytes
+     *
+     * @param bytes The bytes
+     * @return The hex encoded SHA-256 of the bytes
+     */
+    public static String hash(byte[] bytes) {
+        return Hashing.sha256().hashBytes(bytes).toString();
+    }
+
+    /**
+     * Hashes the contents of a directory, including the relative names of its files
+     *
+     * @param directory The directory
+     * @return The hex encoded SHA-256 of the directory
+     */
+    public static String hashDirectory(Path directory) throws IOException {
+        List<Path> files;
+
+        try (Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(Files::isRegularFile).sorted(Comparator.comparing(path -> directory.relativize(path).toString())).collect(Collectors.toList());
+        }
+
+        Hasher hasher = Hashing.sha256().newHasher();
+
+        for (Path file : files) {
+            hasher.putString(directory.relativize(file).toString().replace(File.separatorChar, '/'), StandardCharsets.UTF_8).putByte((byte) 0);
+            hasher.putBytes(Files.readAllBytes(file)).putByte((byte) 0);
+        }
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Combines several parts into a single cache key
+     *
+     * @param parts The parts of the key
+     * @return The hex encoded SHA-256 of the parts
+     */
+    public static String key(String... parts) {
+        return Hashing.sha256().hashString(String.join("\0", parts), StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Finds an entry in the cache, producing and publishing it if it is missing
+     *
+     * @param name     The name of the entry, usually a key with an extension
+     * @param producer Writes the entry, a file or a directory, to the given path, which does not exist yet
+     * @return The path to the entry
+     */
+    public Path get(String name, Producer producer) throws IOException {
+        Path entry = root.resolve(name);
+
+        if (Files.exists(entry)) {
+            touch(entry);
+            return entry;
+        }
+
+        Files.createDirectories(root);
+        Path temporary = root.resolve(name + "." + UUID.randomUUID() + TEMPORARY_SUFFIX);
+
+        try {
+            producer.produce(temporary);
+            publish(temporary, entry);
+        } catch (IOException exception) {
+            throw exception;
+        } catch (Exception exception) {
+            throw new IOException("Failed to produce cache entry " + name, exception);
+        } finally {
+            delete(temporary);
+        }
+
+        evict(entry);
+        return entry;
+    }
+
+    /**
+     * Finds an entry in the cache, without producing it
+     *
+     * @param name The name of the entry
+     * @return The path to the entry, or <code>null</code> if it is missing
+     */
+    public Path find(String name) {
+        Path entry = root.resolve(name);
+
+        if (!Files.exists(entry)) {
+            return null;
+        }
+
+        touch(entry);
+        return entry;
+    }
+
+    /**
+     * Like {@link #get(String, Producer)}, but records a checksum of the entry when it is published and verifies it on
+     * every later lookup. Entries which fail verification are produced again
+     *
+     * @param name     The name of the entry, usually a key with an extension
+     * @param producer Writes the entry to the given path, which does not exist yet
+     * @return The path to the entry
+     */
+    public Path getVerified(String name, Producer producer) throws IOException {
+        Path entry = root.resolve(name);
+        Path checksum = root.resolve(name + CHECKSUM_SUFFIX);
+
+        if (Files.exists(entry)) {
+            if (Files.exists(checksum) && hash(entry.toFile()).equals(new String(Files.readAllBytes(checksum), StandardCharsets.UTF_8))) {
+                touch(entry);
+                return entry;
+            }
+
+            Files.deleteIfExists(entry);
+        }
+
+        return get(name, output -> {
+            producer.produce(output);
+
+            Path temporary = root.resolve(name + CHECKSUM_SUFFIX + "." + UUID.randomUUID() + TEMPORARY_SUFFIX);
+
+            try {
+                Files.write(temporary, hash(output.toFile()).getBytes(StandardCharsets.UTF_8));
+                Files.move(temporary, checksum, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        });
+    }
+
+    private static void publish(Path temporary, Path entry) throws IOException {
+        try {
+            Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileSystemException exception) {
+            // Another build published the same entry first, which is just as good as ours. Moving a directory onto a
+            // published one fails with a plain FileSystemException, rather than FileAlreadyExistsException
+            if (!Files.exists(entry)) {
+                throw exception;
+            }
+
+            delete(temporary);
+        }
+    }
+
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // Only affects eviction order
+        }
+    }
+
+    private void evict(Path keep) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long size = 0;
+        long now = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                if (path.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                    // Left behind by a build which died while producing an entry. Unless another thread or build has
+                    // just published it, in which case it is gone and skipped
+                    long modified = lastModified(path);
+
+                    if (modified > 0 && now - modified > STALE_TEMPORARY) {
+                        delete(path);
+                    }
+
+                    continue;
+                }
+
+                if (path.getFileName().toString().endsWith(CHECKSUM_SUFFIX)) {
+                    continue;
+                }
+
+                entries.add(path);
+                size += size(path);
+            }
+        }
+
+        entries.sort(Comparator.comparingLong(FileCache::lastModified));
+
+        for (Path path : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+
+            // Entries used by a running build are kept, even if that means going over budget for a while
+            if (path.equals(keep) || now - lastModified(path) < RECENTLY_USED) {
+                continue;
+            }
+
+            size -= size(path);
+            delete(path);
+            Files.deleteIfExists(path.resolveSibling(path.getFileName() + CHECKSUM_SUFFIX));
+        }
+    }
+
+    private static long size(Path path) {
+        try {
+            if (!Files.isDirectory(path)) {
+                return Files.size(path);
+            }
+
+            try (Stream<Path> stream = Files.walk(path)) {
+                return stream.filter(Files::isRegularFile).mapToLong(FileCache::size).sum();
+            }
+        } catch (IOException | UncheckedIOException exception) {
+            // Evicted by someone else in the meantime
+            return 0;
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            Files.deleteIfExists(path);
+            return;
+        }
+
+        List<Path> paths;
+
+        try (Stream<Path> stream = Files.walk(path)) {
+            paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        } catch (NoSuchFileException exception) {
+            return;
+        }
+
+        for (Path child : paths) {
+            Files.deleteIfExists(child);
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException exception) {
+            return 0;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Producer {
+
+        void produce(Path output) throws Exception;
+    }
+
+    private static class FileHash {
+
+        private final long size;
+        private final FileTime modified;
+        private final String hash;
+
+        FileHash(long size, FileTime modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+}
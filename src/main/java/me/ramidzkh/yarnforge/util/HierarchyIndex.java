@@ -0,0 +1,448 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceType;
+import org.cadixdev.bombe.type.FieldType;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+import java.util.stream.Stream;
+
+/**
+ * An {@link InheritanceProvider} backed by precomputed class hierarchies. Each jar is scanned once, the result (class,
+ * super class, interfaces, and fields and methods with their access flags) is kept in a {@link FileCache} under the
+ * hash of the jar, and the hierarchies of a whole classpath are merged when loaded
+ */
+public class HierarchyIndex implements InheritanceProvider {
+
+    private static final int MAGIC = 0x59464849; // YFHI
+    private static final int VERSION = 1;
+    private static final int READER_FLAGS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    private final Map<String, ClassInfo> classes;
+
+    private HierarchyIndex(Map<String, ClassInfo> classes) {
+        this.classes = classes;
+    }
+
+    /**
+     * Loads the hierarchy of a classpath, scanning the jars which have not been seen before
+     *
+     * @param cache     The cache holding the hierarchy of each jar
+     * @param classpath The jars, in classpath order. Anything which is not a file is skipped
+     * @param threads   The number of jars to scan at once
+     * @return The merged hierarchy
+     */
+    public static HierarchyIndex create(FileCache cache, List<File> classpath, int threads) throws IOException {
+        Map<String, ClassInfo> classes = new HashMap<>();
+
+        for (Path index : index(cache, getJars(classpath), threads)) {
+            read(index, classes);
+        }
+
+        return new HierarchyIndex(classes);
+    }
+
+    /**
+     * Finds the jars of a classpath which provide some root class, or part of the hierarchy of one. Jars providing
+     * neither, or only classes which an earlier jar provides already, can be left out of anything which only needs to
+     * resolve the roots
+     *
+     * @param cache     The cache holding the hierarchy of each jar
+     * @param classpath The classpath, in order. Anything which is not a file is kept as is
+     * @param roots     Whether a class of a jar is a root
+     * @param threads   The number of jars to scan at once
+     * @return The classpath without the jars which do not contribute, in the same order
+     */
+    public static List<File> findReachable(FileCache cache, List<File> classpath, BiPredicate<File, String> roots, int threads) throws IOException {
+        List<File> jars = getJars(classpath);
+        List<Path> indexes = index(cache, jars, threads);
+        Map<String, Integer> owners = new HashMap<>();
+        Map<String, List<String>> supers = new HashMap<>();
+        Deque<String> queue = new ArrayDeque<>();
+        Set<String> reached = new HashSet<>();
+
+        for (int i = 0; i < jars.size(); i++) {
+            for (Map.Entry<String, List<String>> entry : readHierarchy(indexes.get(i)).entrySet()) {
+                // Earlier jars on the classpath win, like they do when loading classes
+                if (owners.putIfAbsent(entry.getKey(), i) == null) {
+                    supers.put(entry.getKey(), entry.getValue());
+                }
+
+                if (roots.test(jars.get(i), entry.getKey()) && reached.add(entry.getKey())) {
+                    queue.add(entry.getKey());
+                }
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            for (String parent : supers.getOrDefault(queue.poll(), Collections.emptyList())) {
+                if (reached.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+
+        Set<File> used = new HashSet<>();
+
+        for (String klass : reached) {
+            Integer owner = owners.get(klass);
+
+            if (owner != null) {
+                used.add(jars.get(owner));
+            }
+        }
+
+        List<File> result = new ArrayList<>();
+
+        for (File file : classpath) {
+            if (!file.isFile() || used.contains(file)) {
+                result.add(file);
+            }
+        }
+
+        return result;
+    }
+
+    private static List<File> getJars(List<File> classpath) {
+        List<File> jars = new ArrayList<>();
+
+        for (File file : classpath) {
+            if (file.isFile()) {
+                jars.add(file);
+            }
+        }
+
+        return jars;
+    }
+
+    /**
+     * Scans the jars which have not been seen before
+     *
+     * @return The index of each jar, in order
+     */
+    private static List<Path> index(FileCache cache, List<File> jars, int threads) throws IOException {
+        List<Path> indexes = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try {
+            List<Future<Path>> futures = new ArrayList<>();
+
+            for (File jar : jars) {
+                futures.add(executor.submit(() -> cache.get(FileCache.hash(jar) + ".bin", output -> write(jar, output))));
+            }
+
+            for (Future<Path> future : futures) {
+                indexes.add(future.get());
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException(exception);
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof IOException) {
+                throw (IOException) exception.getCause();
+            }
+
+            throw new IOException(exception.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Loads the hierarchy of the running JDK, from its <code>rt.jar</code> or its runtime image
+     *
+     * @param cache The cache holding the hierarchy of the JDK
+     * @return The hierarchy
+     */
+    public static HierarchyIndex createJdk(FileCache cache) throws IOException {
+        Path rt = Paths.get(System.getProperty("java.home"), "lib", "rt.jar");
+
+        Path index = cache.get("jdk-" + getJdkKey() + ".bin", output -> {
+            if (Files.isRegularFile(rt)) {
+                write(rt.toFile(), output);
+            } else {
+                writeRuntimeImage(output);
+            }
+        });
+
+        Map<String, ClassInfo> classes = new HashMap<>();
+        read(index, classes);
+        return new HierarchyIndex(classes);
+    }
+
+    /**
+     * @return A key of the running JDK, which changes whenever its hierarchy might, see {@link #createJdk(FileCache)}
+     */
+    public static String getJdkKey() {
+        return FileCache.key(System.getProperty("java.home"), System.getProperty("java.vm.vendor"), System.getProperty("java.runtime.version"));
+    }
+
+    @Override
+    public Optional<ClassInfo> provide(String klass) {
+        return Optional.ofNullable(classes.get(klass));
+    }
+
+    private static void write(File jar, Path output) throws IOException {
+        Map<String, ClassData> classes = new LinkedHashMap<>();
+
+        try (ClassIndex index = ClassIndex.open(jar)) {
+            for (String name : index.getClassNames()) {
+                ClassData data = scan(index.get(name));
+                classes.putIfAbsent(data.name, data);
+            }
+        }
+
+        write(classes.values(), output);
+    }
+
+    private static void writeRuntimeImage(Path output) throws IOException {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        Map<String, ClassData> classes = new LinkedHashMap<>();
+
+        try (Stream<Path> modules = Files.list(jrt.getPath("/modules"))) {
+            for (Path module : (Iterable<Path>) modules::iterator) {
+                try (Stream<Path> files = Files.walk(module)) {
+                    files.filter(path -> path.toString().endsWith(".class") && !path.getFileName().toString().equals("module-info.class"))
+                            .forEach(path -> {
+                                try {
+                                    ClassData data = scan(Files.readAllBytes(path));
+                                    classes.putIfAbsent(data.name, data);
+                                } catch (IOException exception) {
+                                    throw new UncheckedIOException(exception);
+                                }
+                            });
+                }
+            }
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+
+        write(classes.values(), output);
+    }
+
+    private static ClassData scan(byte[] bytes) {
+        ClassData data = new ClassData();
+
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM7) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                data.name = name;
+                data.access = access;
+                data.superName = superName;
+                data.interfaces = interfaces == null ? Collections.emptyList() : Arrays.asList(interfaces);
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                data.fields.add(new MemberData(access, name, descriptor));
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                data.methods.add(new MemberData(access, name, descriptor));
+                return null;
+            }
+        }, READER_FLAGS);
+
+        return data;
+    }
+
+    private static void write(Iterable<ClassData> classes, Path output) throws IOException {
+        List<ClassData> list = new ArrayList<>();
+        classes.forEach(list::add);
+
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeInt(list.size());
+
+            for (ClassData data : list) {
+                stream.writeUTF(data.name);
+                stream.writeInt(data.access);
+                stream.writeUTF(data.superName == null ? "" : data.superName);
+                stream.writeInt(data.interfaces.size());
+
+                for (String itf : data.interfaces) {
+                    stream.writeUTF(itf);
+                }
+
+                writeMembers(data.fields, stream);
+                writeMembers(data.methods, stream);
+            }
+        }
+    }
+
+    private static void writeMembers(List<MemberData> members, DataOutputStream stream) throws IOException {
+        stream.writeInt(members.size());
+
+        for (MemberData member : members) {
+            stream.writeInt(member.access);
+            stream.writeUTF(member.name);
+            stream.writeUTF(member.descriptor);
+        }
+    }
+
+    private static void read(Path index, Map<String, ClassInfo> classes) throws IOException {
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+                throw new IOException(index + " is not a hierarchy index of version " + VERSION);
+            }
+
+            int count = stream.readInt();
+
+            for (int i = 0; i < count; i++) {
+                String name = stream.readUTF();
+                int access = stream.readInt();
+                String superName = stream.readUTF();
+                List<String> interfaces = new ArrayList<>();
+
+                for (int j = stream.readInt(); j > 0; j--) {
+                    interfaces.add(stream.readUTF());
+                }
+
+                Map<FieldSignature, InheritanceType> fields = new HashMap<>();
+                Map<String, InheritanceType> fieldsByName = new HashMap<>();
+
+                for (int j = stream.readInt(); j > 0; j--) {
+                    InheritanceType type = InheritanceType.fromModifiers(stream.readInt());
+                    String fieldName = stream.readUTF();
+                    fields.put(new FieldSignature(fieldName, FieldType.of(stream.readUTF())), type);
+                    fieldsByName.put(fieldName, type);
+                }
+
+                Map<MethodSignature, InheritanceType> methods = new HashMap<>();
+
+                for (int j = stream.readInt(); j > 0; j--) {
+                    InheritanceType type = InheritanceType.fromModifiers(stream.readInt());
+                    methods.put(MethodSignature.of(stream.readUTF(), stream.readUTF()), type);
+                }
+
+                // Earlier jars on the classpath win, like they do when loading classes
+                if (!classes.containsKey(name)) {
+                    classes.put(name, new ClassInfo.Impl(name, (access & Opcodes.ACC_INTERFACE) != 0, superName.isEmpty() ? null : superName, interfaces, fields, fieldsByName, methods));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads only the super class and interfaces of each class of an index
+     */
+    private static Map<String, List<String>> readHierarchy(Path index) throws IOException {
+        Map<String, List<String>> supers = new HashMap<>();
+
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+                throw new IOException(index + " is not a hierarchy index of version " + VERSION);
+            }
+
+            int count = stream.readInt();
+
+            for (int i = 0; i < count; i++) {
+                String name = stream.readUTF();
+                stream.readInt();
+                String superName = stream.readUTF();
+                List<String> parents = new ArrayList<>();
+
+                if (!superName.isEmpty()) {
+                    parents.add(superName);
+                }
+
+                for (int j = stream.readInt(); j > 0; j--) {
+                    parents.add(stream.readUTF());
+                }
+
+                // Fields, then methods
+                for (int k = 0; k < 2; k++) {
+                    for (int j = stream.readInt(); j > 0; j--) {
+                        stream.readInt();
+                        stream.readUTF();
+                        stream.readUTF();
+                    }
+                }
+
+                supers.putIfAbsent(name, parents);
+            }
+        }
+
+        return supers;
+    }
+
+    private static class ClassData {
+
+        String name;
+        int access;
+        String superName;
+        List<String> interfaces;
+        final List<MemberData> fields = new ArrayList<>();
+        final List<MemberData> methods = new ArrayList<>();
+    }
+
+    private static class MemberData {
+
+        final int access;
+        final String name;
+        final String descriptor;
+
+        MemberData(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import com.google.common.base.Throwables;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Renames sources which were remapped to intermediary names to the named names of some mappings, without parsing them.
+ * <p>
+ * Every intermediary name (<code>class_1234</code>, <code>method_1234</code>, <code>field_1234</code>) is unique, so
+ * each can be replaced on its own, wherever it appears: in code, in comments and in strings, which is where Mixin
+ * targets live. Two intermediary classes may share a simple name once named. When a file imports both, or imports one
+ * clashing with a type of its own, the later one is referred to by its fully qualified name instead.
+ * <p>
+ * Names the mappings do not know are left as they are, see {@link #getUnmapped()}. Wildcard imports are left as they
+ * are too. Every intermediary class is in <code>net.minecraft</code>, while named classes are spread over many
+ * packages, so the classes a file only reaches through <code>import net.minecraft.*;</code> are not in scope anymore
+ * once renamed, and have to be imported by hand
+ */
+public class IntermediaryRenamer {
+
+    private static final Pattern NAME = Pattern.compile(
+            // net.minecraft.class_1.class_2 in code, or net/minecraft/class_1$class_2 in strings and descriptors
+            "(?:(?<![\\w$./])|(?<=L))net([./])minecraft\\1(class_\\d+(?:[.$]class_\\d+)*)(?![\\w$])"
+                    // class_1 or class_1.class_2
+                    + "|(?<![\\w$])(class_\\d+(?:[.$]class_\\d+)*)(?![\\w$])"
+                    + "|(?<![\\w$])((?:method|field|comp)_\\d+)(?![\\w$])"
+    );
+    private static final Pattern SEGMENT = Pattern.compile("([.$]?)(class_\\d+)");
+    private static final Pattern IMPORT = Pattern.compile("(?m)^[ \\t]*import[ \\t]+(static[ \\t]+)?([\\w$.]+(?:\\.\\*)?)[ \\t]*;[ \\t]*\\r?\\n?");
+    private static final Pattern INTERMEDIARY_IMPORT = Pattern.compile("net\\.minecraft\\.(?:class_\\d+\\.)*(class_\\d+)");
+    private static final Pattern TYPE = Pattern.compile("(?<![\\w$])(?:class|interface|enum)\\s+([\\w$]+)");
+    private static final String JAVA_SUFFIX = ".java";
+
+    private final Map<String, String> classes;
+    private final Map<String, String> members;
+    private final Set<String> unmapped = ConcurrentHashMap.newKeySet();
+
+    private IntermediaryRenamer(Map<String, String> classes, Map<String, String> members) {
+        this.classes = classes;
+        this.members = members;
+    }
+
+    /**
+     * Reads the intermediary and named names of every class and member of a tree
+     *
+     * @param tree         The tree
+     * @param intermediary The intermediary namespace
+     * @param named        The named namespace
+     * @return The renamer
+     */
+    public static IntermediaryRenamer of(TinyTree tree, String intermediary, String named) {
+        Map<String, String> classes = new HashMap<>();
+        Map<String, String> members = new HashMap<>();
+
+        for (ClassDef classDef : tree.getClasses()) {
+            String name = classDef.getName(intermediary);
+            classes.put(name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('$')) + 1), classDef.getName(named));
+
+            for (FieldDef field : classDef.getFields()) {
+                members.put(field.getName(intermediary), field.getName(named));
+            }
+
+            for (MethodDef method : classDef.getMethods()) {
+                members.put(method.getName(intermediary), method.getName(named));
+            }
+        }
+
+        return new IntermediaryRenamer(classes, members);
+    }
+
+    /**
+     * @return The intermediary names renamed so far which the mappings do not know, and were left as they are
+     */
+    public Set<String> getUnmapped() {
+        return new TreeSet<>(unmapped);
+    }
+
+    /**
+     * Renames every Java file of a source tree, and copies any other file as is
+     *
+     * @param input   The source tree, with intermediary names
+     * @param output  Where to write the renamed tree
+     * @param threads The number of files to rename at once
+     */
+    public void renameTree(Path input, Path output, int threads) throws IOException {
+        List<Path> paths;
+
+        try (Stream<Path> stream = Files.walk(input)) {
+            paths = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        // Types of the same package are in scope without an import, so an import must not shadow them
+        Map<String, Set<String>> packages = new HashMap<>();
+
+        for (SourceIndex.SourceFile file : SourceIndex.scan(input).getFiles().values()) {
+            packages.computeIfAbsent(getPackage(file.name), k -> new HashSet<>()).addAll(file.getTypes());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (Path path : paths) {
+                futures.add(executor.submit(() -> {
+                    String name = SourceIndex.getRelativeName(input, path);
+                    Path target = output.resolve(name);
+                    Files.createDirectories(target.getParent());
+
+                    if (!name.endsWith(JAVA_SUFFIX)) {
+                        Files.copy(path, target);
+                        return null;
+                    }
+
+                    String source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+                    Set<String> scope = packages.getOrDefault(getPackage(name), Collections.emptySet());
+                    Files.write(target, rename(source, scope).getBytes(StandardCharsets.UTF_8));
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException(exception);
+        } catch (ExecutionException exception) {
+            Throwables.throwIfInstanceOf(exception.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(exception.getCause());
+            throw new IOException(exception.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Renames a single source file
+     *
+     * @param source The source, with intermediary names
+     * @param scope  The simple names of the other types in the package of the file
+     * @return The source, with named names
+     */
+    public String rename(String source, Set<String> scope) {
+        Map<String, String> taken = new HashMap<>();
+        Set<String> qualified = new HashSet<>();
+        Set<String> imports = new HashSet<>();
+
+        for (String type : scope) {
+            taken.put(type, type);
+        }
+
+        Matcher type = TYPE.matcher(source);
+
+        while (type.find()) {
+            taken.put(type.group(1), type.group(1));
+        }
+
+        Matcher matcher = IMPORT.matcher(source);
+
+        // Plain imports first, they cannot move
+        while (matcher.find()) {
+            String name = matcher.group(2);
+
+            if (matcher.group(1) == null && !name.endsWith(".*") && !INTERMEDIARY_IMPORT.matcher(name).matches()) {
+                taken.put(name.substring(name.lastIndexOf('.') + 1), name);
+            }
+        }
+
+        StringBuffer result = new StringBuffer(source.length());
+        matcher.reset();
+
+        while (matcher.find()) {
+            Matcher intermediary = INTERMEDIARY_IMPORT.matcher(matcher.group(2));
+
+            if (matcher.group(1) != null || !intermediary.matches() || !classes.containsKey(intermediary.group(1))) {
+                continue;
+            }
+
+            String id = intermediary.group(1);
+            String fullName = classes.get(id).replace('/', '.').replace('$', '.');
+            String simpleName = getSimpleName(classes.get(id));
+            String owner = taken.putIfAbsent(simpleName, fullName);
+
+            if (owner != null && !owner.equals(fullName)) {
+                // Refer to it by its full name, and drop the import which would clash
+                qualified.add(id);
+                matcher.appendReplacement(result, "");
+            } else if (!imports.add(fullName)) {
+                // Two intermediary names of one class
+                matcher.appendReplacement(result, "");
+            }
+        }
+
+        matcher.appendTail(result);
+        return replaceNames(result.toString(), qualified);
+    }
+
+    private String replaceNames(String source, Set<String> qualified) {
+        Matcher matcher = NAME.matcher(source);
+        StringBuffer result = new StringBuffer(source.length());
+
+        while (matcher.find()) {
+            String replacement;
+
+            if (matcher.group(2) != null) {
+                replacement = renameClasses(matcher.group(2), matcher.group(1).charAt(0), Collections.emptySet());
+            } else if (matcher.group(3) != null) {
+                replacement = renameClasses(matcher.group(3), (char) 0, qualified);
+            } else {
+                replacement = members.get(matcher.group(4));
+            }
+
+            if (replacement == null) {
+                unmapped.add(matcher.group());
+            }
+
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement == null ? matcher.group() : replacement));
+        }
+
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * @param chain     The chain of intermediary class names, separated by <code>.</code> or <code>$</code>
+     * @param separator The package separator if the chain is fully qualified, or <code>0</code>
+     * @param qualified The classes which must be fully qualified
+     * @return The named chain, or <code>null</code> if some class is unknown
+     */
+    private String renameClasses(String chain, char separator, Set<String> qualified) {
+        StringBuilder builder = new StringBuilder();
+        Matcher segment = SEGMENT.matcher(chain);
+        boolean first = true;
+
+        while (segment.find()) {
+            String named = classes.get(segment.group(2));
+
+            if (named == null) {
+                return null;
+            }
+
+            if (first && separator != 0) {
+                builder.append(separator == '/' ? named : named.replace('/', '.').replace('$', '.'));
+            } else if (first && qualified.contains(segment.group(2))) {
+                builder.append(named.replace('/', '.').replace('$', '.'));
+            } else {
+                builder.append(segment.group(1)).append(getSimpleName(named));
+            }
+
+            first = false;
+        }
+
+        return builder.toString();
+    }
+
+    private static String getSimpleName(String name) {
+        return name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('$')) + 1);
+    }
+
+    private static String getPackage(String name) {
+        return name.lastIndexOf('/') < 0 ? "" : name.substring(0, name.lastIndexOf('/'));
+    }
+}
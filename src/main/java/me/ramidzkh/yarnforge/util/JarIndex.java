@@ -0,0 +1,296 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only view of a jar, indexed through its central directory and read with positional reads of a
+ * {@link FileChannel}. Reads are thread-safe, and closing the index releases the file right away
+ */
+public class JarIndex implements Closeable {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Map<String, Entry> entries;
+
+    private JarIndex(Path path, FileChannel channel, Map<String, Entry> entries) {
+        this.path = path;
+        this.channel = channel;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens and indexes a jar
+     *
+     * @param path The jar
+     * @return The index, which must be closed when it is no longer needed
+     * @throws ZipException If the jar is malformed, or needs Zip64 extensions
+     */
+    public static JarIndex open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            return new JarIndex(path, channel, readCentralDirectory(path, channel));
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    private static Map<String, Entry> readCentralDirectory(Path path, FileChannel channel) throws IOException {
+        long size = channel.size();
+
+        if (size < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            throw new ZipException(path + " is too short to be a jar");
+        }
+
+        int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_LENGTH);
+        ByteBuffer tail = read(channel, size - tailLength, tailLength);
+        int end = findEndOfCentralDirectory(tail);
+
+        if (end < 0) {
+            throw new ZipException(path + " has no central directory");
+        }
+
+        int count = tail.getShort(end + 10) & 0xFFFF;
+        long length = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long offset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+        if (count == 0xFFFF || length == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+            throw new ZipException(path + " needs Zip64 extensions");
+        }
+
+        if (offset + length > size - tailLength + end) {
+            throw new ZipException(path + " has a malformed central directory");
+        }
+
+        ByteBuffer directory = read(channel, offset, (int) length);
+        Map<String, Entry> entries = new LinkedHashMap<>(count * 2);
+        int position = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_DIRECTORY_ENTRY_SIZE > directory.limit() || directory.getInt(position) != CENTRAL_DIRECTORY_ENTRY) {
+                throw new ZipException(path + " has a malformed central directory");
+            }
+
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+
+            if (position + CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength > directory.limit()) {
+                throw new ZipException(path + " has a malformed central directory");
+            }
+
+            byte[] name = new byte[nameLength];
+            ((ByteBuffer) directory.duplicate().position(position + CENTRAL_DIRECTORY_ENTRY_SIZE)).get(name);
+
+            Entry entry = new Entry(
+                    new String(name, StandardCharsets.UTF_8),
+                    directory.getShort(position + 8) & 0xFFFF,
+                    directory.getShort(position + 10) & 0xFFFF,
+                    directory.getInt(position + 12),
+                    directory.getInt(position + 16),
+                    directory.getInt(position + 20) & 0xFFFFFFFFL,
+                    directory.getInt(position + 24) & 0xFFFFFFFFL,
+                    directory.getInt(position + 42) & 0xFFFFFFFFL
+            );
+
+            entries.putIfAbsent(entry.name, entry);
+            position += CENTRAL_DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer tail) {
+        for (int position = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                return position;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads part of a file, without moving the position of the channel
+     *
+     * @return A new buffer holding the bytes read
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Reads and inflates an entry
+     *
+     * @param entry An entry of this jar
+     * @return The contents of the entry
+     */
+    public byte[] read(Entry entry) throws IOException {
+        ByteBuffer data = getData(entry);
+        byte[] bytes = new byte[(int) entry.size];
+
+        switch (entry.method) {
+            case 0: // Stored
+                data.get(bytes);
+                return bytes;
+            case 8: { // Deflated
+                // The inflater wants an extra dummy byte when it does not see zlib headers
+                byte[] compressed = new byte[(int) entry.compressedSize + 1];
+                data.get(compressed, 0, (int) entry.compressedSize);
+
+                Inflater inflater = new Inflater(true);
+
+                try {
+                    inflater.setInput(compressed);
+                    int read = 0;
+
+                    while (read < bytes.length && !inflater.finished()) {
+                        int inflated = inflater.inflate(bytes, read, bytes.length - read);
+
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+
+                        read += inflated;
+                    }
+
+                    if (read != bytes.length) {
+                        throw new ZipException(path + "!" + entry.name + " is truncated");
+                    }
+
+                    return bytes;
+                } catch (DataFormatException exception) {
+                    throw new ZipException(path + "!" + entry.name + ": " + exception.getMessage());
+                } finally {
+                    inflater.end();
+                }
+            }
+            default:
+                throw new ZipException(path + "!" + entry.name + " uses unsupported compression method " + entry.method);
+        }
+    }
+
+    /**
+     * Reads the stored, possibly compressed, data of an entry
+     *
+     * @param entry An entry of this jar
+     * @return A new buffer holding the data
+     */
+    public ByteBuffer getData(Entry entry) throws IOException {
+        if (entry.compressedSize > Integer.MAX_VALUE || entry.size > Integer.MAX_VALUE) {
+            throw new ZipException(path + "!" + entry.name + " is too large to be read");
+        }
+
+        ByteBuffer header;
+
+        try {
+            header = read(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        } catch (EOFException exception) {
+            throw new ZipException(path + "!" + entry.name + " has a malformed local header");
+        }
+
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new ZipException(path + "!" + entry.name + " has a malformed local header");
+        }
+
+        long start = entry.localHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+
+        try {
+            return read(channel, start, (int) entry.compressedSize);
+        } catch (EOFException exception) {
+            throw new ZipException(path + "!" + entry.name + " is truncated");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static class Entry {
+
+        public final String name;
+        public final int flags;
+        public final int method;
+        /**
+         * The last modification time and date, in MS-DOS format
+         */
+        public final int time;
+        public final int crc;
+        public final long compressedSize;
+        public final long size;
+        public final long localHeaderOffset;
+
+        Entry(String name, int flags, int method, int time, int crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.time = time;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.asm.LorenzRemapper;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Remaps the classes of a jar, streaming it into a new jar. Classes are remapped in parallel, a bounded number at a
+ * time, and written in their original order. Every other entry is copied as it is stored, without inflating it
+ */
+public class JarRemapper {
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /**
+     * Remaps a jar
+     *
+     * @param mappings            The mappings. Completed in place, so they must not be shared
+     * @param inheritanceProvider The hierarchy of the classes of the jar and its dependencies, to complete the mappings
+     * @param input               The jar
+     * @param output              Where to write the remapped jar
+     * @param threads             The number of classes to remap at once
+     * @return The number of remapped classes
+     */
+    public static int remap(MappingSet mappings, InheritanceProvider inheritanceProvider, Path input, Path output, int threads) throws IOException {
+        Remapper remapper = new ConcurrentRemapper(new LorenzRemapper(mappings, inheritanceProvider));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        // Enough classes in flight to keep every thread busy, but never the whole jar
+        int window = Math.max(1, threads) * 4;
+        int classes = 0;
+        boolean done = false;
+
+        try {
+            try (JarIndex jar = JarIndex.open(input); JarOutput out = new JarOutput(Files.newOutputStream(output))) {
+                Deque<Future<Remapped>> pending = new ArrayDeque<>();
+                Set<String> names = new HashSet<>();
+
+                for (JarIndex.Entry entry : jar.getEntries()) {
+                    if (isSignature(entry.name)) {
+                        // The signatures would not match the remapped classes anymore
+                        continue;
+                    }
+
+                    drain(pending, window - 1, out, names);
+
+                    if (!entry.name.endsWith(CLASS_SUFFIX) || entry.name.endsWith("/")) {
+                        // Queued behind the classes before it, so the order of the jar is kept and the manifest stays first.
+                        // Data descriptors are not needed, the sizes are known up front
+                        pending.add(CompletableFuture.completedFuture(new Remapped(entry.name, entry.flags & ~DATA_DESCRIPTOR_FLAG, entry.time, entry.method, entry.crc, entry.size, jar.getData(entry))));
+                        continue;
+                    }
+
+                    pending.add(executor.submit(() -> remapClass(jar, entry, remapper)));
+                    classes++;
+                }
+
+                drain(pending, 0, out, names);
+            }
+
+            done = true;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException(exception);
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof IOException) {
+                throw (IOException) exception.getCause();
+            }
+
+            throw new IOException("Failed to remap " + input, exception.getCause());
+        } finally {
+            executor.shutdownNow();
+
+            if (!done) {
+                Files.deleteIfExists(output);
+            }
+        }
+
+        return classes;
+    }
+
+    private static boolean isSignature(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) {
+            return false;
+        }
+
+        return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC");
+    }
+
+    /**
+     * Writes out the oldest entries, until at most some are left in flight
+     */
+    private static void drain(Deque<Future<Remapped>> pending, int keep, JarOutput out, Set<String> names) throws IOException, InterruptedException, ExecutionException {
+        while (pending.size() > keep) {
+            Remapped remapped = pending.poll().get();
+
+            if (!names.add(remapped.name)) {
+                throw new ZipException("Several entries are remapped to " + remapped.name);
+            }
+
+            out.write(remapped);
+        }
+    }
+
+    private static Remapped remapClass(JarIndex jar, JarIndex.Entry entry, Remapper remapper) throws IOException {
+        ClassReader reader = new ClassReader(jar.read(entry));
+        ClassWriter writer = new ClassWriter(0);
+        reader.accept(new ClassRemapper(writer, remapper), 0);
+        byte[] bytes = writer.toByteArray();
+
+        // Multi-release jars keep their classes under a prefix, which stays as it is
+        String className = reader.getClassName() + CLASS_SUFFIX;
+        String prefix = entry.name.endsWith(className) ? entry.name.substring(0, entry.name.length() - className.length()) : "";
+        String name = prefix + remapper.map(reader.getClassName()) + CLASS_SUFFIX;
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            byte[] buffer = new byte[bytes.length + 64];
+            int length = 0;
+
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+
+            // Tiny classes can grow when deflated
+            if (length >= bytes.length) {
+                return new Remapped(name, UTF8_FLAG, entry.time, STORED, (int) crc.getValue(), bytes.length, ByteBuffer.wrap(bytes));
+            }
+
+            return new Remapped(name, UTF8_FLAG, entry.time, DEFLATED, (int) crc.getValue(), bytes.length, ByteBuffer.wrap(buffer, 0, length));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * An entry of the remapped jar, with its data as stored
+     */
+    private static class Remapped {
+
+        private final String name;
+        private final int flags;
+        private final int time;
+        private final int method;
+        private final int crc;
+        private final long size;
+        private final ByteBuffer data;
+
+        Remapped(String name, int flags, int time, int method, int crc, long size, ByteBuffer data) {
+            this.name = name;
+            this.flags = flags;
+            this.time = time;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Shares a {@link Remapper} which is not thread-safe, {@link LorenzRemapper} completing its mappings as it goes,
+     * between threads. Every name is only remapped once, after that it is looked up without locking
+     */
+    private static class ConcurrentRemapper extends Remapper {
+
+        private final Remapper delegate;
+        private final Map<String, String> types = new ConcurrentHashMap<>();
+        private final Map<String, String> fields = new ConcurrentHashMap<>();
+        private final Map<String, String> methods = new ConcurrentHashMap<>();
+
+        ConcurrentRemapper(Remapper delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String map(String internalName) {
+            String mapped = types.get(internalName);
+
+            if (mapped == null) {
+                synchronized (delegate) {
+                    mapped = delegate.map(internalName);
+                }
+
+                types.put(internalName, mapped);
+            }
+
+            return mapped;
+        }
+
+        @Override
+        public String mapFieldName(String owner, String name, String descriptor) {
+            String key = owner + '.' + name + ':' + descriptor;
+            String mapped = fields.get(key);
+
+            if (mapped == null) {
+                synchronized (delegate) {
+                    mapped = delegate.mapFieldName(owner, name, descriptor);
+                }
+
+                fields.put(key, mapped);
+            }
+
+            return mapped;
+        }
+
+        @Override
+        public String mapMethodName(String owner, String name, String descriptor) {
+            String key = owner + '.' + name + descriptor;
+            String mapped = methods.get(key);
+
+            if (mapped == null) {
+                synchronized (delegate) {
+                    mapped = delegate.mapMethodName(owner, name, descriptor);
+                }
+
+                methods.put(key, mapped);
+            }
+
+            return mapped;
+        }
+    }
+
+    /**
+     * Writes a jar entry by entry, without Zip64 extensions. It fails as soon as the jar would need them, that is once
+     * an entry or the jar reaches 4GB, or the jar has more than 65534 entries. <code>0xFFFF</code> and
+     * <code>0xFFFFFFFF</code> are not allowed themselves, as they tell readers to look for the Zip64 fields
+     */
+    private static class JarOutput implements AutoCloseable {
+
+        private static final long MAX_SIZE = 0xFFFFFFFFL - 1;
+        private static final int MAX_ENTRIES = 0xFFFF - 1;
+        private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+        private final OutputStream stream;
+        private final WritableByteChannel channel;
+        private ByteBuffer directory = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private final ByteBuffer header = ByteBuffer.allocate(30 + 0xFFFF).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+        private int count;
+
+        JarOutput(OutputStream stream) {
+            this.stream = new BufferedOutputStream(stream, 64 * 1024);
+            this.channel = Channels.newChannel(this.stream);
+        }
+
+        void write(Remapped remapped) throws IOException {
+            write(remapped.name, remapped.flags, remapped.method, remapped.time, remapped.crc, remapped.data.remaining(), remapped.size, remapped.data);
+        }
+
+        private void write(String name, int flags, int method, int time, int crc, long compressedSize, long size, ByteBuffer data) throws IOException {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+            if (nameBytes.length > MAX_NAME_LENGTH) {
+                throw new ZipException("The name of " + name.substring(0, 64) + "... is longer than " + MAX_NAME_LENGTH + " bytes");
+            }
+
+            if (size > MAX_SIZE || compressedSize > MAX_SIZE) {
+                throw new ZipException(name + " is larger than 4GB, which needs Zip64 extensions, and those are not supported");
+            }
+
+            if (++count > MAX_ENTRIES) {
+                throw new ZipException("The remapped jar has more than " + MAX_ENTRIES + " entries, which needs Zip64 extensions, and those are not supported");
+            }
+
+            header.clear();
+            header.putInt(0x04034b50).putShort((short) 20).putShort((short) flags).putShort((short) method).putInt(time)
+                    .putInt(crc).putInt((int) compressedSize).putInt((int) size).putShort((short) nameBytes.length).putShort((short) 0)
+                    .put(nameBytes);
+            header.flip();
+            writeFully(header);
+
+            ensureDirectory(46 + nameBytes.length);
+            directory.putInt(0x02014b50).putShort((short) 20).putShort((short) 20).putShort((short) flags).putShort((short) method)
+                    .putInt(time).putInt(crc).putInt((int) compressedSize).putInt((int) size).putShort((short) nameBytes.length)
+                    .putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) position)
+                    .put(nameBytes);
+
+            position += 30 + nameBytes.length;
+            writeFully(data.duplicate());
+            position += compressedSize;
+
+            // Whatever comes next, an entry or the central directory, would start past what can be pointed to
+            if (position > MAX_SIZE) {
+                throw tooLarge();
+            }
+        }
+
+        private static ZipException tooLarge() {
+            return new ZipException("The remapped jar is larger than 4GB, which needs Zip64 extensions, and those are not supported");
+        }
+
+        private void ensureDirectory(int length) {
+            if (directory.remaining() < length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(directory.capacity() * 2, directory.position() + length)).order(ByteOrder.LITTLE_ENDIAN);
+                directory.flip();
+                grown.put(directory);
+                directory = grown;
+            }
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long start = position;
+                directory.flip();
+                int length = directory.remaining();
+
+                if (start + length > MAX_SIZE) {
+                    throw tooLarge();
+                }
+
+                writeFully(directory);
+
+                ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+                end.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) count).putShort((short) count)
+                        .putInt(length).putInt((int) start).putShort((short) 0);
+                end.flip();
+                writeFully(end);
+            } finally {
+                stream.close();
+            }
+        }
+    }
+}
@@ -16,15 +16,22 @@
 
 package me.ramidzkh.yarnforge.util;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import net.fabricmc.mapping.tree.ClassDef;
 import net.fabricmc.mapping.tree.FieldDef;
 import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.minecraftforge.gradle.common.util.McpNames;
+import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.bombe.type.signature.MethodSignature;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.model.*;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -87,6 +94,51 @@ public class MappingBridge {
         return mappings;
     }
 
+    /**
+     * Completes every {@link ClassMapping} in a {@link MappingSet} with inherited members.
+     * <p>
+     * This runs on the calling thread. Lorenz creates the mappings of parent classes, and completes them, while
+     * completing a class, so classes cannot be completed apart
+     *
+     * @param mappings The mappings
+     * @param provider The inheritance provider
+     */
+    public static void complete(MappingSet mappings, InheritanceProvider provider) {
+        iterateClasses(mappings, classMapping -> classMapping.complete(provider));
+    }
+
+    /**
+     * Computes a fingerprint of the contents of a {@link MappingSet}, independent of the iteration order of its maps
+     *
+     * @param mappings The mappings
+     * @return The hex encoded SHA-256 of the mappings
+     */
+    public static String fingerprint(MappingSet mappings) {
+        List<String> lines = new ArrayList<>();
+
+        iterateClasses(mappings, classMapping -> {
+            String prefix = classMapping.getFullObfuscatedName();
+            lines.add(prefix + " " + classMapping.getFullDeobfuscatedName());
+
+            for (FieldMapping fieldMapping : classMapping.getFieldMappings()) {
+                lines.add(prefix + " " + fieldMapping.getObfuscatedName() + " " + fieldMapping.getType().map(Object::toString).orElse("") + " " + fieldMapping.getDeobfuscatedName());
+            }
+
+            for (MethodMapping methodMapping : classMapping.getMethodMappings()) {
+                lines.add(prefix + " " + methodMapping.getObfuscatedName() + methodMapping.getSignature().getDescriptor() + " " + methodMapping.getDeobfuscatedName());
+            }
+        });
+
+        Collections.sort(lines);
+        Hasher hasher = Hashing.sha256().newHasher();
+
+        for (String line : lines) {
+            hasher.putString(line, StandardCharsets.UTF_8).putByte((byte) '\n');
+        }
+
+        return hasher.hash().toString();
+    }
+
     /**
      * Iterates through all the {@link TopLevelClassMapping} and {@link InnerClassMapping} in a {@link MappingSet}
      *
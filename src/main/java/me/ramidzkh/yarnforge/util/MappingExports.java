@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import net.fabricmc.mapping.tree.TinyTree;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.io.MappingFormats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Exports mappings next to the remapped sources, for inspection
+ */
+public class MappingExports {
+
+    /**
+     * Exports a mapping between two namespaces. As SRG, only the <code>a</code> to <code>b</code> direction is
+     * written, otherwise both directions are written as Tiny v2, see {@link TinyV2BidirectionalWriter}
+     *
+     * @param directory The directory to export into
+     * @param a         The obfuscated namespace
+     * @param b         The de-obfuscated namespace
+     * @param mappings  The mappings
+     * @param srg       Whether to export SRG rather than Tiny
+     * @param gzip      Whether to compress Tiny exports
+     */
+    public static void export(Path directory, String a, String b, MappingSet mappings, boolean srg, boolean gzip) throws IOException {
+        Files.createDirectories(directory);
+
+        if (srg) {
+            Path path = directory.resolve(a + "To" + capitaliseFirstCharacter(b) + ".srg");
+
+            try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+                MappingFormats.SRG.createWriter(writer).write(mappings);
+            }
+        } else {
+            String extension = gzip ? ".tiny.gz" : ".tiny";
+            Path aToB = directory.resolve(a + "To" + capitaliseFirstCharacter(b) + extension);
+            Path bToA = directory.resolve(b + "To" + capitaliseFirstCharacter(a) + extension);
+            TinyV2BidirectionalWriter.write(mappings, a, b, aToB, bToA, gzip);
+        }
+    }
+
+    /**
+     * Exports two namespaces of a {@link TinyTree}, like {@link #export(Path, String, String, MappingSet, boolean, boolean)}
+     *
+     * @param directory The directory to export into
+     * @param a         The obfuscated namespace
+     * @param b         The de-obfuscated namespace
+     * @param tree      The tree
+     * @param from      The namespace of the tree to export as <code>a</code>
+     * @param to        The namespace of the tree to export as <code>b</code>
+     * @param srg       Whether to export SRG rather than Tiny
+     * @param gzip      Whether to compress Tiny exports
+     */
+    public static void export(Path directory, String a, String b, TinyTree tree, String from, String to, boolean srg, boolean gzip) throws IOException {
+        if (srg) {
+            export(directory, a, b, MappingBridge.loadTiny(tree, from, to), true, gzip);
+        } else {
+            Files.createDirectories(directory);
+            String extension = gzip ? ".tiny.gz" : ".tiny";
+            Path aToB = directory.resolve(a + "To" + capitaliseFirstCharacter(b) + extension);
+            Path bToA = directory.resolve(b + "To" + capitaliseFirstCharacter(a) + extension);
+            TinyV2BidirectionalWriter.write(tree, from, to, a, b, aToB, bToA, gzip);
+        }
+    }
+
+    private static String capitaliseFirstCharacter(String s) {
+        if (s.length() > 0) {
+            return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+        } else {
+            return s;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.type.FieldType;
+import org.cadixdev.bombe.type.MethodDescriptor;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MemberSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Joins an obfuscation mapping with {@link CompactMappings} on the obfuscated names, into a mapping from the
+ * de-obfuscated names of the former to the names of the latter.
+ * <p>
+ * This gives what completing both sides and then merging the reversed obfuscation mapping with the latter would, but
+ * members the compact side inherits are looked up through the class hierarchy on demand, rather than copied into every
+ * subclass. Descriptors of the result are pooled, so members with the same descriptor share it
+ */
+public class MappingJoin {
+
+    private static final String NONE = new String();
+
+    private final CompactMappings target;
+    private final InheritanceProvider provider;
+    private final Map<String, Map<MemberSignature, String>> resolved = new HashMap<>();
+    private final Map<FieldType, FieldType> fieldTypes = new HashMap<>();
+    private final Map<MethodDescriptor, MethodDescriptor> methodDescriptors = new HashMap<>();
+
+    private MappingJoin(CompactMappings target, InheritanceProvider provider) {
+        this.target = target;
+        this.provider = provider;
+    }
+
+    /**
+     * Joins an obfuscation mapping with another
+     *
+     * @param target   The mapping to join with, from the same obfuscated names
+     * @param mappings The obfuscation mapping, which should already be completed
+     * @param provider The inheritance provider, used to find the members classes of <code>target</code> inherit
+     * @return A newly constructed mapping, from the de-obfuscated names of <code>mappings</code> to the de-obfuscated
+     * names of <code>target</code>
+     */
+    public static MappingSet join(CompactMappings target, MappingSet mappings, InheritanceProvider provider) {
+        return new MappingJoin(target, provider).join(mappings);
+    }
+
+    private MappingSet join(MappingSet mappings) {
+        MappingSet result = MappingSet.create();
+
+        MappingBridge.iterateClasses(mappings, classMapping -> {
+            String klass = classMapping.getFullObfuscatedName();
+            ClassMapping<?, ?> joined = result
+                    .getOrCreateClassMapping(classMapping.getFullDeobfuscatedName())
+                    .setDeobfuscatedName(getClassName(klass));
+
+            for (FieldMapping fieldMapping : classMapping.getFieldMappings()) {
+                String name = fieldMapping.getObfuscatedName();
+                String targetName = find(klass, new FieldSignature(name));
+                FieldSignature signature = fieldMapping.getDeobfuscatedSignature();
+                FieldType type = signature.getType().orElse(null);
+
+                joined.getOrCreateFieldMapping(type == null ? signature : new FieldSignature(signature.getName(), fieldTypes.computeIfAbsent(type, t -> t)))
+                        .setDeobfuscatedName(targetName == null ? name : targetName);
+            }
+
+            for (MethodMapping methodMapping : classMapping.getMethodMappings()) {
+                String targetName = find(klass, methodMapping.getSignature());
+                MethodSignature signature = methodMapping.getDeobfuscatedSignature();
+
+                joined.getOrCreateMethodMapping(new MethodSignature(signature.getName(), methodDescriptors.computeIfAbsent(signature.getDescriptor(), d -> d)))
+                        .setDeobfuscatedName(targetName == null ? methodMapping.getObfuscatedName() : targetName);
+            }
+        });
+
+        return result;
+    }
+
+    private String getClassName(String klass) {
+        int id = target.getClass(klass);
+
+        if (id >= 0) {
+            return target.getClassName(id);
+        }
+
+        // Like an inner class mapping which only exists to hold its children, keep the name under the outer class
+        int inner = klass.lastIndexOf('$');
+        return inner < 0 ? klass : getClassName(klass.substring(0, inner)) + klass.substring(inner);
+    }
+
+    /**
+     * Finds the name of a member in a class, or the closest parent it is inherited from, following the same order
+     * and access checks as {@link ClassMapping#complete(InheritanceProvider)}
+     */
+    private String find(String klass, MemberSignature signature) {
+        int id = target.getClass(klass);
+
+        if (id >= 0) {
+            String name = signature instanceof FieldSignature
+                    ? target.getFieldName(id, signature.getName())
+                    : target.getMethodName(id, signature.getName(), ((MethodSignature) signature).getDescriptor().toString());
+
+            if (name != null) {
+                return name;
+            }
+        }
+
+        Map<MemberSignature, String> members = resolved.computeIfAbsent(klass, k -> new HashMap<>());
+        String name = members.get(signature);
+
+        if (name != null) {
+            return name == NONE ? null : name;
+        }
+
+        // Record a miss first, which also guards against malformed, cyclic, hierarchies
+        members.put(signature, NONE);
+        Optional<InheritanceProvider.ClassInfo> info = provider.provide(klass);
+
+        if (info.isPresent()) {
+            List<String> parents = new ArrayList<>();
+
+            if (info.get().getSuperName() != null) {
+                parents.add(info.get().getSuperName());
+            }
+
+            parents.addAll(info.get().getInterfaces());
+
+            for (String parentName : parents) {
+                Optional<InheritanceProvider.ClassInfo> parent = provider.provide(parentName);
+
+                if (!parent.isPresent()) {
+                    continue;
+                }
+
+                String inherited = find(parentName, signature);
+
+                if (inherited != null && (signature instanceof FieldSignature
+                        ? parent.get().canInherit(info.get(), (FieldSignature) signature)
+                        : parent.get().canInherit(info.get(), (MethodSignature) signature))) {
+                    name = inherited;
+                    break;
+                }
+            }
+        }
+
+        members.put(signature, name == null ? NONE : name);
+        return name;
+    }
+}
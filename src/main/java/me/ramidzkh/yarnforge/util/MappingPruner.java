@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Prunes an obfuscation mapping down to the classes a source tree can reach, so completing and joining it only
+ * costs as much as the source tree uses.
+ * <p>
+ * A class is reached when its de-obfuscated simple name is mentioned by the sources. From there, the closure follows
+ * the super classes and interfaces of every reached class, and the types in the descriptors of every member whose
+ * de-obfuscated name is mentioned, which covers chained calls through types the sources never name. Reached classes
+ * are kept with all of their members
+ */
+public class MappingPruner {
+
+    /**
+     * Prunes a mapping
+     *
+     * @param mappings    The obfuscation mapping
+     * @param identifiers The identifiers mentioned by the sources, see {@link SourceIndex}
+     * @param provider    The inheritance provider
+     * @return A newly constructed mapping, holding the reached classes
+     */
+    public static MappingSet prune(MappingSet mappings, Set<String> identifiers, InheritanceProvider provider) {
+        Map<String, List<String>> bySimpleName = new HashMap<>();
+
+        MappingBridge.iterateClasses(mappings, classMapping -> {
+            String name = classMapping.getFullDeobfuscatedName();
+            String simpleName = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('$')) + 1);
+            bySimpleName.computeIfAbsent(simpleName, k -> new ArrayList<>()).add(classMapping.getFullObfuscatedName());
+        });
+
+        Set<String> reached = new LinkedHashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+
+        for (String identifier : identifiers) {
+            queue.addAll(bySimpleName.getOrDefault(identifier, new ArrayList<>()));
+        }
+
+        while (!queue.isEmpty()) {
+            String klass = queue.poll();
+
+            if (!reached.add(klass)) {
+                continue;
+            }
+
+            // An inner class mapping needs its outer class
+            int inner = klass.lastIndexOf('$');
+
+            if (inner > 0) {
+                queue.add(klass.substring(0, inner));
+            }
+
+            Optional<InheritanceProvider.ClassInfo> info = provider.provide(klass);
+
+            if (info.isPresent()) {
+                if (info.get().getSuperName() != null) {
+                    queue.add(info.get().getSuperName());
+                }
+
+                queue.addAll(info.get().getInterfaces());
+            }
+
+            Optional<? extends ClassMapping<?, ?>> classMapping = mappings.getClassMapping(klass);
+
+            if (!classMapping.isPresent()) {
+                continue;
+            }
+
+            for (FieldMapping fieldMapping : classMapping.get().getFieldMappings()) {
+                if (identifiers.contains(fieldMapping.getDeobfuscatedName())) {
+                    fieldMapping.getType().ifPresent(type -> addClasses(type.toString(), queue));
+                }
+            }
+
+            for (MethodMapping methodMapping : classMapping.get().getMethodMappings()) {
+                if (identifiers.contains(methodMapping.getDeobfuscatedName())) {
+                    addClasses(methodMapping.getSignature().getDescriptor().toString(), queue);
+                }
+            }
+        }
+
+        return copy(mappings, reached);
+    }
+
+    /**
+     * Adds the classes of a field or method descriptor
+     */
+    private static void addClasses(String descriptor, Collection<String> classes) {
+        int i = 0;
+
+        while (i < descriptor.length()) {
+            if (descriptor.charAt(i) == 'L') {
+                int end = descriptor.indexOf(';', i);
+
+                if (end < 0) {
+                    return;
+                }
+
+                classes.add(descriptor.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static MappingSet copy(MappingSet mappings, Set<String> classes) {
+        MappingSet result = MappingSet.create();
+
+        MappingBridge.iterateClasses(mappings, classMapping -> {
+            if (!classes.contains(classMapping.getFullObfuscatedName())) {
+                return;
+            }
+
+            ClassMapping<?, ?> copy = result
+                    .getOrCreateClassMapping(classMapping.getFullObfuscatedName())
+                    .setDeobfuscatedName(classMapping.getFullDeobfuscatedName());
+
+            for (FieldMapping fieldMapping : classMapping.getFieldMappings()) {
+                copy.createFieldMapping(fieldMapping.getSignature(), fieldMapping.getDeobfuscatedName());
+            }
+
+            for (MethodMapping methodMapping : classMapping.getMethodMappings()) {
+                MethodMapping methodCopy = copy.createMethodMapping(methodMapping.getSignature(), methodMapping.getDeobfuscatedName());
+
+                for (MethodParameterMapping parameterMapping : methodMapping.getParameterMappings()) {
+                    methodCopy.createParameterMapping(parameterMapping.getIndex(), parameterMapping.getDeobfuscatedName());
+                }
+            }
+        });
+
+        return result;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import org.cadixdev.bombe.type.FieldType;
+import org.cadixdev.bombe.type.MethodDescriptor;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.*;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary serialization of a {@link MappingSet}.
+ * <p>
+ * The file starts with a magic number and a format version, followed by a table of every string used by the
+ * mappings, and then one length-prefixed record per top level class. Records refer to strings by their index in the
+ * table. Snapshots are memory-mapped when read
+ */
+public class MappingSetSnapshot {
+
+    /**
+     * The current format version. Bump this whenever the layout changes, so old snapshots are rejected
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x59464D53; // YFMS
+    private static final int NONE = -1;
+
+    /**
+     * Writes a snapshot of a {@link MappingSet}
+     *
+     * @param mappings The mappings
+     * @param path     The file to write to
+     */
+    public static void write(MappingSet mappings, Path path) throws IOException {
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int count = 0;
+
+        {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream recordOutput = new DataOutputStream(record);
+            DataOutputStream recordsOutput = new DataOutputStream(records);
+
+            for (TopLevelClassMapping classMapping : mappings.getTopLevelClassMappings()) {
+                record.reset();
+                writeClass(classMapping, recordOutput, strings, table);
+                recordOutput.flush();
+
+                recordsOutput.writeInt(record.size());
+                record.writeTo(recordsOutput);
+                count++;
+            }
+
+            recordsOutput.flush();
+        }
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(table.size());
+
+            for (String string : table) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+
+            output.writeInt(count);
+            records.writeTo(output);
+        }
+    }
+
+    private static void writeClass(ClassMapping<?, ?> classMapping, DataOutputStream output, Map<String, Integer> strings, List<String> table) throws IOException {
+        output.writeInt(intern(classMapping.getObfuscatedName(), strings, table));
+        output.writeInt(intern(classMapping.getDeobfuscatedName(), strings, table));
+
+        output.writeInt(classMapping.getFieldMappings().size());
+
+        for (FieldMapping fieldMapping : classMapping.getFieldMappings()) {
+            FieldType type = fieldMapping.getType().orElse(null);
+            output.writeInt(intern(fieldMapping.getObfuscatedName(), strings, table));
+            output.writeInt(type == null ? NONE : intern(type.toString(), strings, table));
+            output.writeInt(intern(fieldMapping.getDeobfuscatedName(), strings, table));
+        }
+
+        output.writeInt(classMapping.getMethodMappings().size());
+
+        for (MethodMapping methodMapping : classMapping.getMethodMappings()) {
+            output.writeInt(intern(methodMapping.getObfuscatedName(), strings, table));
+            output.writeInt(intern(methodMapping.getSignature().getDescriptor().toString(), strings, table));
+            output.writeInt(intern(methodMapping.getDeobfuscatedName(), strings, table));
+            output.writeInt(methodMapping.getParameterMappings().size());
+
+            for (MethodParameterMapping parameterMapping : methodMapping.getParameterMappings()) {
+                output.writeInt(parameterMapping.getIndex());
+                output.writeInt(intern(parameterMapping.getDeobfuscatedName(), strings, table));
+            }
+        }
+
+        output.writeInt(classMapping.getInnerClassMappings().size());
+
+        for (InnerClassMapping innerClassMapping : classMapping.getInnerClassMappings()) {
+            writeClass(innerClassMapping, output, strings, table);
+        }
+    }
+
+    private static int intern(String string, Map<String, Integer> strings, List<String> table) {
+        return strings.computeIfAbsent(string, s -> {
+            table.add(s);
+            return table.size() - 1;
+        });
+    }
+
+    /**
+     * Checks whether a file looks like a snapshot of the current format version, without reading the whole file
+     *
+     * @param path The snapshot
+     * @return <code>true</code> if the header matches
+     */
+    public static boolean isCurrent(Path path) throws IOException {
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(path))) {
+            return input.readInt() == MAGIC && input.readInt() == VERSION;
+        } catch (EOFException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a snapshot into a new {@link MappingSet}
+     *
+     * @param path The snapshot
+     * @return A newly constructed mapping
+     * @throws IOException If the snapshot is unreadable, truncated, or was written with another format version
+     */
+    public static MappingSet read(Path path) throws IOException {
+        MappedByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a mappings snapshot");
+            }
+
+            int version = buffer.getInt();
+
+            if (version != VERSION) {
+                throw new IOException(path + " has format version " + version + ", expected " + VERSION);
+            }
+
+            Table table = new Table(buffer);
+            MappingSet mappings = MappingSet.create();
+            int count = buffer.getInt();
+
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                int end = buffer.position() + length;
+
+                TopLevelClassMapping classMapping = mappings.createTopLevelClassMapping(table.string(buffer.getInt()), table.string(buffer.getInt()));
+                readMembers(classMapping, buffer, table);
+
+                if (buffer.position() != end) {
+                    throw new IOException(path + " has a malformed record for " + classMapping.getFullObfuscatedName());
+                }
+            }
+
+            return mappings;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException exception) {
+            throw new IOException(path + " is truncated or corrupt", exception);
+        }
+    }
+
+    private static void readMembers(ClassMapping<?, ?> classMapping, ByteBuffer buffer, Table table) {
+        int fields = buffer.getInt();
+
+        for (int i = 0; i < fields; i++) {
+            String name = table.string(buffer.getInt());
+            int type = buffer.getInt();
+            FieldSignature signature = type == NONE ? new FieldSignature(name) : new FieldSignature(name, table.fieldType(type));
+            classMapping.createFieldMapping(signature, table.string(buffer.getInt()));
+        }
+
+        int methods = buffer.getInt();
+
+        for (int i = 0; i < methods; i++) {
+            String name = table.string(buffer.getInt());
+            MethodDescriptor descriptor = table.methodDescriptor(buffer.getInt());
+            MethodMapping methodMapping = classMapping.createMethodMapping(new MethodSignature(name, descriptor), table.string(buffer.getInt()));
+            int parameters = buffer.getInt();
+
+            for (int j = 0; j < parameters; j++) {
+                methodMapping.createParameterMapping(buffer.getInt(), table.string(buffer.getInt()));
+            }
+        }
+
+        int innerClasses = buffer.getInt();
+
+        for (int i = 0; i < innerClasses; i++) {
+            InnerClassMapping innerClassMapping = classMapping.createInnerClassMapping(table.string(buffer.getInt()), table.string(buffer.getInt()));
+            readMembers(innerClassMapping, buffer, table);
+        }
+    }
+
+    /**
+     * The string table of a snapshot. Descriptors are parsed at most once, so every member sharing a descriptor also
+     * shares the parsed object
+     */
+    private static class Table {
+
+        private final String[] strings;
+        private final FieldType[] fieldTypes;
+        private final MethodDescriptor[] methodDescriptors;
+
+        Table(ByteBuffer buffer) {
+            int size = buffer.getInt();
+            this.strings = new String[size];
+            this.fieldTypes = new FieldType[size];
+            this.methodDescriptors = new MethodDescriptor[size];
+
+            byte[] bytes = new byte[256];
+
+            for (int i = 0; i < size; i++) {
+                int length = buffer.getInt();
+
+                if (bytes.length < length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+
+                buffer.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+        }
+
+        String string(int index) {
+            return strings[index];
+        }
+
+        FieldType fieldType(int index) {
+            FieldType type = fieldTypes[index];
+
+            if (type == null) {
+                type = fieldTypes[index] = FieldType.of(strings[index]);
+            }
+
+            return type;
+        }
+
+        MethodDescriptor methodDescriptor(int index) {
+            MethodDescriptor descriptor = methodDescriptors[index];
+
+            if (descriptor == null) {
+                descriptor = methodDescriptors[index] = MethodDescriptor.of(strings[index]);
+            }
+
+            return descriptor;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import net.fabricmc.mapping.tree.TinyMappingFactory;
+import net.fabricmc.mapping.tree.TinyTree;
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.lorenz.MappingSet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the mcp to yarn mappings. This does not depend on Gradle, so it can run in a worker process
+ */
+public class MappingsBuilder {
+
+    /**
+     * The version of the way the mappings are built. Bump this whenever they would come out differently, so mappings
+     * built by older versions are not reused
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Builds the mcp to yarn mappings
+     *
+     * @param tiny        The Tiny mappings from the <code>official</code> namespace
+     * @param namespace   The namespace of the Tiny mappings to map to, usually <code>named</code>
+     * @param classpath   The merged Minecraft jar, first, and its dependencies, used to complete the mappings
+     * @param obfToMcp    The obfuscation mapping to MCP names. Unless pruned, this is completed in place
+     * @param identifiers The identifiers mentioned by the sources to remap, to prune the mappings to what they can
+     *                    reach, see {@link MappingPruner}. Or <code>null</code> to keep every class
+     * @param hierarchies The cache holding class hierarchies, see {@link HierarchyIndex}
+     * @param threads     The number of threads used to build the mappings
+     * @param exports     The directory to export intermediate mappings into, or <code>null</code>
+     * @param srg         Whether exports should be SRG rather than Tiny
+     * @param gzip        Whether Tiny exports should be compressed
+     * @param profiler    Records each phase of building the mappings
+     * @return A newly constructed mcp to yarn mapping
+     */
+    public static MappingSet buildMcpToYarn(Path tiny, String namespace, List<File> classpath, MappingSet obfToMcp, Set<String> identifiers, FileCache hierarchies, int threads, Path exports, boolean srg, boolean gzip, PhaseProfiler profiler) throws IOException {
+        TinyTree obfToYarn;
+        String label = getLabel(namespace);
+
+        try (PhaseProfiler.Phase ignored = profiler.start("parse tiny"); BufferedReader reader = Files.newBufferedReader(tiny)) {
+            obfToYarn = TinyMappingFactory.loadWithDetection(reader);
+        }
+
+        if (exports != null) {
+            try (PhaseProfiler.Phase ignored = profiler.start("export obf-" + label)) {
+                MappingExports.export(exports, "obf", label, obfToYarn, "official", namespace, srg, gzip);
+            }
+        }
+
+        CompactMappings compactObfToYarn;
+
+        try (PhaseProfiler.Phase ignored = profiler.start("compact tiny")) {
+            compactObfToYarn = CompactMappings.of(obfToYarn, "official", namespace);
+            obfToYarn = null; // Let the tree go before completing the mappings
+        }
+
+        // TODO: Bullet-proof propagation
+        InheritanceProvider inheritanceProvider;
+
+        try (PhaseProfiler.Phase ignored = profiler.start("index hierarchy")) {
+            // Only the hierarchy of Minecraft is ever looked up, so leave out the jars which are not part of it
+            File minecraft = classpath.get(0);
+            List<File> reachable = HierarchyIndex.findReachable(hierarchies, classpath, (jar, klass) -> jar.equals(minecraft), threads);
+
+            inheritanceProvider = new ConcurrentCascadingInheritanceProvider()
+                    .install(HierarchyIndex.create(hierarchies, reachable, threads))
+                    .install(HierarchyIndex.createJdk(hierarchies)); // For JRE classes
+        }
+
+        if (identifiers != null) {
+            try (PhaseProfiler.Phase ignored = profiler.start("prune")) {
+                obfToMcp = MappingPruner.prune(obfToMcp, identifiers, inheritanceProvider);
+            }
+        }
+
+        try (PhaseProfiler.Phase ignored = profiler.start("complete")) {
+            MappingBridge.complete(obfToMcp, inheritanceProvider);
+        }
+
+        // Only the MCP side becomes a mapping set, the Tiny side is joined against in its compact form
+        MappingSet mcpToYarn;
+
+        try (PhaseProfiler.Phase ignored = profiler.start("join")) {
+            mcpToYarn = MappingJoin.join(compactObfToYarn, obfToMcp, inheritanceProvider);
+        }
+
+        if (exports != null) {
+            try (PhaseProfiler.Phase ignored = profiler.start("export mcp-" + label)) {
+                MappingExports.export(exports, "obf", "mcp", obfToMcp, srg, gzip);
+                MappingExports.export(exports, "mcp", label, mcpToYarn, srg, gzip);
+            }
+        }
+
+        return mcpToYarn;
+    }
+
+    /**
+     * @return How exports name a namespace, <code>named</code> being Yarn
+     */
+    private static String getLabel(String namespace) {
+        return namespace.equals("named") ? "yarn" : namespace;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import codechicken.diffpatch.cli.DiffOperation;
+import codechicken.diffpatch.util.Utils;
+import com.google.common.base.Throwables;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates patches between two trees in parallel. Byte-identical pairs of files are dropped up front, and the rest
+ * is linked into buckets which are diffed concurrently, each by its own {@link DiffOperation}
+ */
+public class ParallelDiff {
+
+    /**
+     * Writes the patches between two trees
+     *
+     * @param a       The original tree
+     * @param b       The modified tree
+     * @param output  The directory to write the patches into. Anything already there is replaced, once every patch has
+     *                been written, so a failed diff leaves the patches of an earlier run as they are
+     * @param work    A directory to stage the buckets in, deleted afterwards
+     * @param threads The number of buckets to diff at once
+     * @param log     Creates the stream each bucket logs to
+     * @return The number of files which differ
+     */
+    public static int diff(Path a, Path b, Path output, Path work, int threads, Supplier<OutputStream> log) throws IOException {
+        Set<String> names = new TreeSet<>();
+        names.addAll(list(a));
+        names.addAll(list(b));
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try {
+            List<Future<Boolean>> identical = new ArrayList<>();
+
+            for (String name : names) {
+                identical.add(executor.submit(() -> isIdentical(a.resolve(name), b.resolve(name))));
+            }
+
+            List<String> changed = new ArrayList<>();
+            int i = 0;
+
+            for (String name : names) {
+                if (!get(identical.get(i++))) {
+                    changed.add(name);
+                }
+            }
+
+            if (Files.exists(work)) {
+                Utils.deleteFolder(work);
+            }
+
+            // Next to the output, so it can be moved into place rather than copied
+            Path staged = output.resolveSibling(output.getFileName() + ".tmp");
+
+            if (Files.exists(staged)) {
+                Utils.deleteFolder(staged);
+            }
+
+            Files.createDirectories(staged);
+
+            try {
+                int buckets = Math.max(1, Math.min(threads, changed.size()));
+                List<Future<?>> diffs = new ArrayList<>();
+
+                for (int bucket = 0; bucket < buckets; bucket++) {
+                    Path root = work.resolve("bucket-" + bucket);
+                    Files.createDirectories(root.resolve("a"));
+                    Files.createDirectories(root.resolve("b"));
+
+                    // Spread the files round-robin, so neighbouring large files do not end up in the same bucket
+                    for (int j = bucket; j < changed.size(); j += buckets) {
+                        link(a, changed.get(j), root.resolve("a"));
+                        link(b, changed.get(j), root.resolve("b"));
+                    }
+
+                    diffs.add(executor.submit(() -> {
+                        DiffOperation.builder()
+                                .logTo(log.get())
+                                .aPath(root.resolve("a"))
+                                .bPath(root.resolve("b"))
+                                .outputPath(root.resolve("patches"))
+                                .build()
+                                .operate();
+                        return null;
+                    }));
+                }
+
+                for (Future<?> diff : diffs) {
+                    get(diff);
+                }
+
+                for (int bucket = 0; bucket < buckets; bucket++) {
+                    Path patches = work.resolve("bucket-" + bucket).resolve("patches");
+
+                    for (String name : list(patches)) {
+                        Path target = staged.resolve(name);
+                        Files.createDirectories(target.getParent());
+                        Files.move(patches.resolve(name), target);
+                    }
+                }
+
+                if (Files.exists(output)) {
+                    Utils.deleteFolder(output);
+                }
+
+                Files.move(staged, output);
+            } finally {
+                if (Files.exists(work)) {
+                    Utils.deleteFolder(work);
+                }
+
+                if (Files.exists(staged)) {
+                    Utils.deleteFolder(staged);
+                }
+            }
+
+            return changed.size();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Zips a directory
+     *
+     * @param directory The directory
+     * @param archive   The zip to write. It is only replaced once the new one is complete
+     */
+    public static void zip(Path directory, Path archive) throws IOException {
+        Path staged = archive.resolveSibling(archive.getFileName() + ".tmp");
+
+        try {
+            try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(staged)))) {
+                for (String name : list(directory)) {
+                    zip.putNextEntry(new ZipEntry(name));
+                    Files.copy(directory.resolve(name), zip);
+                    zip.closeEntry();
+                }
+            }
+
+            Files.move(staged, archive, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    private static boolean isIdentical(Path a, Path b) throws IOException {
+        if (!Files.isRegularFile(a) || !Files.isRegularFile(b) || Files.size(a) != Files.size(b)) {
+            return false;
+        }
+
+        return Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(b));
+    }
+
+    private static void link(Path root, String name, Path target) throws IOException {
+        Path source = root.resolve(name);
+
+        if (Files.isRegularFile(source)) {
+            SourceShards.stage(root, Collections.singletonList(name), target);
+        }
+    }
+
+    private static List<String> list(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return new ArrayList<>();
+        }
+
+        try (Stream<Path> stream = Files.walk(root)) {
+            return stream.filter(Files::isRegularFile).map(path -> SourceIndex.getRelativeName(root, path)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException(exception);
+        } catch (ExecutionException exception) {
+            Throwables.throwIfInstanceOf(exception.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(exception.getCause());
+            throw new IOException(exception.getCause());
+        }
+    }
+}
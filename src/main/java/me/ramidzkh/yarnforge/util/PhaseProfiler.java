@@ -0,0 +1,312 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the wall time, CPU time, allocated bytes and peak heap of each phase of a remap, and how long each file took
+ * to rewrite.
+ * <p>
+ * Only the wall time belongs to the phase alone. CPU time, allocations and the peak heap are measured for the whole
+ * process, and reported as such, so phases which run at the same time, and anything else the process is doing, such as
+ * other tasks of the Gradle daemon, share them. This keeps the work a phase hands to other threads in its numbers.
+ * Allocations are summed over the threads alive when a phase starts and ends. The peak heap of a phase is the peak
+ * since the earliest phase still running when it started, as starting a phase while none is running resets the peak
+ * usage of the heap pools of the process. Profilers of worker processes hand their records over as fragments, see
+ * {@link #writeFragment(Path)}
+ */
+public class PhaseProfiler {
+
+    private static final int VERSION = 2;
+
+    private final List<PhaseTiming> phases = Collections.synchronizedList(new ArrayList<>());
+    private final List<FileTiming> files = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * Starts a phase, which ends when it is closed
+     *
+     * @param name The name of the phase
+     * @return The phase
+     */
+    public Phase start(String name) {
+        if (running.getAndIncrement() == 0) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                }
+            }
+        }
+
+        return new Phase(name);
+    }
+
+    /**
+     * Records how long a file took to rewrite
+     *
+     * @param pass  The name of the pass rewriting the file
+     * @param file  The file
+     * @param nanos The time taken, in nanoseconds
+     */
+    public void recordFile(String pass, String file, long nanos) {
+        files.add(new FileTiming(pass, file, nanos));
+    }
+
+    /**
+     * Writes the records to a fragment, which can be read back with {@link #readFragment(Path)}
+     *
+     * @param path The fragment
+     */
+    public void writeFragment(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            synchronized (phases) {
+                for (PhaseTiming phase : phases) {
+                    writer.write("phase\t" + escape(phase.name) + "\t" + phase.start + "\t" + phase.wall + "\t" + phase.cpu + "\t" + phase.allocated + "\t" + phase.peakHeap + "\n");
+                }
+            }
+
+            synchronized (files) {
+                for (FileTiming file : files) {
+                    writer.write("file\t" + escape(file.pass) + "\t" + escape(file.file) + "\t" + file.nanos + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the records of a fragment written by {@link #writeFragment(Path)}
+     *
+     * @param path The fragment
+     */
+    public void readFragment(Path path) throws IOException {
+        for (String line : Files.readAllLines(path)) {
+            String[] parts = line.split("\t", -1);
+
+            if (parts[0].equals("phase") && parts.length == 7) {
+                phases.add(new PhaseTiming(unescape(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4]), Long.parseLong(parts[5]), Long.parseLong(parts[6])));
+            } else if (parts[0].equals("file") && parts.length == 4) {
+                files.add(new FileTiming(unescape(parts[1]), unescape(parts[2]), Long.parseLong(parts[3])));
+            }
+        }
+    }
+
+    /**
+     * Writes the report, as JSON. Phases are ordered by when they started, and files from the slowest
+     *
+     * @param path The report
+     * @param task The name of the task
+     */
+    public void writeReport(Path path, String task) throws IOException {
+        List<PhaseTiming> phases;
+        List<FileTiming> files;
+
+        synchronized (this.phases) {
+            phases = new ArrayList<>(this.phases);
+        }
+
+        synchronized (this.files) {
+            files = new ArrayList<>(this.files);
+        }
+
+        phases.sort((a, b) -> Long.compare(a.start, b.start));
+        files.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        Files.createDirectories(path.getParent());
+
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            writer.write("{\n");
+            writer.write("  \"version\": " + VERSION + ",\n");
+            writer.write("  \"task\": " + quote(task) + ",\n");
+            writer.write("  \"phases\": [");
+
+            for (int i = 0; i < phases.size(); i++) {
+                PhaseTiming phase = phases.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\"name\": " + quote(phase.name)
+                        + ", \"startMillis\": " + phase.start
+                        + ", \"wallNanos\": " + phase.wall
+                        + ", \"processCpuNanos\": " + phase.cpu
+                        + ", \"processAllocatedBytes\": " + phase.allocated
+                        + ", \"processPeakHeapBytes\": " + phase.peakHeap + "}");
+            }
+
+            writer.write(phases.isEmpty() ? "],\n" : "\n  ],\n");
+            writer.write("  \"files\": [");
+
+            for (int i = 0; i < files.size(); i++) {
+                FileTiming file = files.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\"pass\": " + quote(file.pass) + ", \"file\": " + quote(file.file) + ", \"nanos\": " + file.nanos + "}");
+            }
+
+            writer.write(files.isEmpty() ? "]\n" : "\n  ]\n");
+            writer.write("}\n");
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                builder.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+
+        return builder.append('"').toString();
+    }
+
+    private static long getProcessCpuTime() {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+
+        return -1;
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        long total = 0;
+
+        // Threads which die during a phase take their allocations with them, so this can only ever undercount
+        for (long allocated : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+
+        return total;
+    }
+
+    private static long getPeakHeap() {
+        long peak = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return peak;
+    }
+
+    /**
+     * A running phase of a remap. Closing it records it
+     */
+    public class Phase implements AutoCloseable {
+
+        private final String name;
+        private final long start = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final long startCpu = getProcessCpuTime();
+        private final long startAllocated = getAllocatedBytes();
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            long wall = System.nanoTime() - startNanos;
+            long endCpu = getProcessCpuTime();
+            long endAllocated = getAllocatedBytes();
+            long cpu = startCpu < 0 || endCpu < 0 ? -1 : endCpu - startCpu;
+            long allocated = startAllocated < 0 || endAllocated < 0 ? -1 : Math.max(0, endAllocated - startAllocated);
+            phases.add(new PhaseTiming(name, start, wall, cpu, allocated, getPeakHeap()));
+            running.decrementAndGet();
+        }
+    }
+
+    private static class PhaseTiming {
+
+        private final String name;
+        private final long start;
+        private final long wall;
+        private final long cpu;
+        private final long allocated;
+        private final long peakHeap;
+
+        PhaseTiming(String name, long start, long wall, long cpu, long allocated, long peakHeap) {
+            this.name = name;
+            this.start = start;
+            this.wall = wall;
+            this.cpu = cpu;
+            this.allocated = allocated;
+            this.peakHeap = peakHeap;
+        }
+    }
+
+    private static class FileTiming {
+
+        private final String pass;
+        private final String file;
+        private final long nanos;
+
+        FileTiming(String pass, String file, long nanos) {
+            this.pass = pass;
+            this.file = file;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A pool of idle values, which are only softly referenced, so the garbage collector drops them before running out of
+ * heap. Values are taken out of the pool to be used, so no two users ever share one, and put back when they are done.
+ * At most a number of values are kept, the least recently used keys being evicted first
+ */
+public class SoftPool {
+
+    private final Map<String, Deque<SoftReference<Object>>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxSize;
+    private int size;
+
+    public SoftPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Takes an idle value out of the pool
+     *
+     * @param key The key of the value
+     * @return The value, or <code>null</code> if there is none, or the garbage collector dropped it
+     */
+    public synchronized Object take(String key) {
+        Deque<SoftReference<Object>> values = idle.get(key);
+
+        if (values == null) {
+            return null;
+        }
+
+        Object value = null;
+
+        while (value == null && !values.isEmpty()) {
+            value = values.pollLast().get();
+            size--;
+        }
+
+        if (values.isEmpty()) {
+            idle.remove(key);
+        }
+
+        return value;
+    }
+
+    /**
+     * Puts a value back into the pool
+     *
+     * @param key   The key of the value
+     * @param value The value, which must not be used anymore
+     */
+    public synchronized void put(String key, Object value) {
+        idle.computeIfAbsent(key, k -> new ArrayDeque<>()).addLast(new SoftReference<>(value));
+        size++;
+        evict();
+    }
+
+    public synchronized void clear() {
+        idle.clear();
+        size = 0;
+    }
+
+    private void evict() {
+        Iterator<Deque<SoftReference<Object>>> iterator = idle.values().iterator();
+
+        while (size > maxSize && iterator.hasNext()) {
+            Deque<SoftReference<Object>> values = iterator.next();
+
+            while (size > maxSize && !values.isEmpty()) {
+                values.pollFirst();
+                size--;
+            }
+
+            if (values.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+}
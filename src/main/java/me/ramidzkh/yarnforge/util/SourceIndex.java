@@ -0,0 +1,285 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A lexical index of a Java source tree. Every file is tokenized, without parsing, into the names of the types it
+ * declares and every identifier it mentions, which is enough to over-approximate which files may refer to a type
+ */
+public class SourceIndex {
+
+    private static final String JAVA_SUFFIX = ".java";
+
+    private final Path root;
+    private final Map<String, SourceFile> files;
+
+    private SourceIndex(Path root, Map<String, SourceFile> files) {
+        this.root = root;
+        this.files = files;
+    }
+
+    /**
+     * Scans every Java file of a source tree
+     *
+     * @param root The source root
+     * @return The index
+     */
+    public static SourceIndex scan(Path root) throws IOException {
+        Map<String, SourceFile> files = new TreeMap<>();
+
+        if (!Files.isDirectory(root)) {
+            return new SourceIndex(root, files);
+        }
+
+        List<Path> paths;
+
+        try (Stream<Path> stream = Files.walk(root)) {
+            paths = stream.filter(path -> Files.isRegularFile(path) && path.getFileName().toString().endsWith(JAVA_SUFFIX)).collect(Collectors.toList());
+        }
+
+        // The same identifiers come up in most files, so they are shared rather than kept once per file
+        Map<String, String> identifiers = new HashMap<>();
+
+        for (Path path : paths) {
+            byte[] bytes = Files.readAllBytes(path);
+            String name = getRelativeName(root, path);
+            SourceFile file = new SourceFile(name, FileCache.hash(bytes));
+            tokenize(new String(bytes, StandardCharsets.UTF_8), file, identifiers);
+            files.put(name, file);
+        }
+
+        return new SourceIndex(root, files);
+    }
+
+    /**
+     * @return The name of a file relative to a root, separated by <code>/</code> on every platform
+     */
+    public static String getRelativeName(Path root, Path path) {
+        StringBuilder builder = new StringBuilder();
+
+        for (Path part : root.relativize(path)) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+
+            builder.append(part);
+        }
+
+        return builder.toString();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public Map<String, SourceFile> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * @return Every identifier mentioned anywhere in the tree
+     */
+    public Set<String> getIdentifiers() {
+        Set<String> identifiers = new HashSet<>();
+
+        for (SourceFile file : files.values()) {
+            identifiers.addAll(file.identifiers);
+        }
+
+        return identifiers;
+    }
+
+    /**
+     * Finds every file which may have to be rewritten again when some files change. A file depends on another if it
+     * mentions one of the types declared there, and this is followed transitively, as a change to a super class can
+     * change how members are resolved through its subclasses
+     *
+     * @param changed The files which changed or were added
+     * @param removed The files which were removed. As they are gone, the types they declared are guessed from their
+     *                file names
+     * @return The changed files and every file depending on them
+     */
+    public Set<String> getDependents(Collection<String> changed, Collection<String> removed) {
+        Map<String, Set<String>> mentions = new HashMap<>();
+
+        for (SourceFile file : files.values()) {
+            for (String identifier : file.identifiers) {
+                mentions.computeIfAbsent(identifier, k -> new HashSet<>()).add(file.name);
+            }
+        }
+
+        Set<String> result = new LinkedHashSet<>();
+        Set<String> visitedTypes = new HashSet<>();
+        Deque<String> types = new ArrayDeque<>();
+
+        for (String name : changed) {
+            if (files.containsKey(name) && result.add(name)) {
+                types.addAll(files.get(name).types);
+            }
+        }
+
+        for (String name : removed) {
+            String fileName = name.substring(name.lastIndexOf('/') + 1);
+            types.add(fileName.endsWith(JAVA_SUFFIX) ? fileName.substring(0, fileName.length() - JAVA_SUFFIX.length()) : fileName);
+        }
+
+        while (!types.isEmpty()) {
+            String type = types.poll();
+
+            if (!visitedTypes.add(type)) {
+                continue;
+            }
+
+            for (String dependent : mentions.getOrDefault(type, Collections.emptySet())) {
+                if (result.add(dependent)) {
+                    types.addAll(files.get(dependent).types);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Splits source into identifiers, skipping comments and literals. An identifier directly following
+     * <code>class</code>, <code>interface</code> or <code>enum</code> is a declared type, and the identifiers between
+     * <code>package</code> and the next <code>;</code> are the declared package
+     */
+    private static void tokenize(String source, SourceFile file, Map<String, String> identifiers) {
+        int length = source.length();
+        boolean declaration = false;
+        StringBuilder packageName = null;
+        int i = 0;
+
+        while (i < length) {
+            char c = source.charAt(i);
+
+            if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                while (i < length && source.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '"' || c == '\'') {
+                i++;
+
+                while (i < length && source.charAt(i) != c) {
+                    i += source.charAt(i) == '\\' ? 2 : 1;
+                }
+
+                i++;
+                declaration = false;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+
+                while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+                    i++;
+                }
+
+                String identifier = identifiers.computeIfAbsent(source.substring(start, i), k -> k);
+
+                if (declaration) {
+                    file.types.add(identifier);
+                }
+
+                if (packageName != null) {
+                    packageName.append(packageName.length() > 0 ? "." : "").append(identifier);
+                } else if (identifier.equals("package") && file.packageName.isEmpty()) {
+                    packageName = new StringBuilder();
+                }
+
+                file.identifiers.add(identifier);
+                declaration = identifier.equals("class") || identifier.equals("interface") || identifier.equals("enum");
+            } else {
+                if (c == ';' && packageName != null) {
+                    file.packageName = packageName.toString();
+                    packageName = null;
+                }
+
+                if (!Character.isWhitespace(c)) {
+                    declaration = false;
+                }
+
+                i++;
+            }
+        }
+    }
+
+    public static class SourceFile {
+
+        public final String name;
+        public final String hash;
+        private final Set<String> types = new HashSet<>();
+        private final Set<String> identifiers = new HashSet<>();
+        private String packageName = "";
+
+        SourceFile(String name, String hash) {
+            this.name = name;
+            this.hash = hash;
+        }
+
+        /**
+         * @return The package this file declares, which need not match its directory, or an empty string for the
+         * default package
+         */
+        public String getPackageName() {
+            return packageName;
+        }
+
+        /**
+         * @return The qualified name of the primary type of this file, from its declared package and its file name
+         */
+        public String getQualifiedPrimaryType() {
+            String fileName = name.substring(name.lastIndexOf('/') + 1);
+            String primaryType = fileName.endsWith(JAVA_SUFFIX) ? fileName.substring(0, fileName.length() - JAVA_SUFFIX.length()) : fileName;
+            return packageName.isEmpty() ? primaryType : packageName + "." + primaryType;
+        }
+
+        /**
+         * @return The simple names of the types declared in this file, including nested types
+         */
+        public Set<String> getTypes() {
+            return Collections.unmodifiableSet(types);
+        }
+
+        /**
+         * @return Every identifier mentioned in this file
+         */
+        public Set<String> getIdentifiers() {
+            return Collections.unmodifiableSet(identifiers);
+        }
+    }
+}
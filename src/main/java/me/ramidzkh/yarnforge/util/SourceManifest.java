@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records what a source tree was rewritten from: a fingerprint of the mappings and settings, and the hash of every
+ * input file. The first line holds the fingerprint, and every other line a hash and a file name
+ */
+public class SourceManifest {
+
+    private final String fingerprint;
+    private final Map<String, String> hashes;
+
+    public SourceManifest(String fingerprint, Map<String, String> hashes) {
+        this.fingerprint = fingerprint;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Records the files of a source tree
+     *
+     * @param fingerprint The fingerprint of the mappings and settings the tree was rewritten with
+     * @param index       The source tree
+     * @return The manifest
+     */
+    public static SourceManifest of(String fingerprint, SourceIndex index) {
+        Map<String, String> hashes = new TreeMap<>();
+
+        for (SourceIndex.SourceFile file : index.getFiles().values()) {
+            hashes.put(file.name, file.hash);
+        }
+
+        return new SourceManifest(fingerprint, hashes);
+    }
+
+    /**
+     * Reads a manifest
+     *
+     * @param path The manifest
+     * @return The manifest, or <code>null</code> if it is missing or malformed
+     */
+    public static SourceManifest read(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String fingerprint = reader.readLine();
+
+            if (fingerprint == null) {
+                return null;
+            }
+
+            Map<String, String> hashes = new TreeMap<>();
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+
+                if (space < 0) {
+                    return null;
+                }
+
+                hashes.put(line.substring(space + 1), line.substring(0, space));
+            }
+
+            return new SourceManifest(fingerprint, hashes);
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write(fingerprint);
+            writer.newLine();
+
+            for (Map.Entry<String, String> entry : hashes.entrySet()) {
+                writer.write(entry.getValue());
+                writer.write(' ');
+                writer.write(entry.getKey());
+                writer.newLine();
+            }
+        }
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Map<String, String> getHashes() {
+        return Collections.unmodifiableMap(hashes);
+    }
+}
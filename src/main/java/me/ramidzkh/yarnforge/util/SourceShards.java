@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Splits a source tree into shards which can be rewritten one at a time
+ */
+public class SourceShards {
+
+    /**
+     * Splits the Java files of a source tree into shards of whole packages, in package order. A package which is
+     * larger than a shard on its own is split by file
+     *
+     * @param root     The source root
+     * @param maxBytes The most source, in bytes, a shard should hold
+     * @return The relative names of the files in each shard
+     */
+    public static List<List<String>> plan(Path root, long maxBytes) throws IOException {
+        Map<String, Map<String, Long>> packages = new TreeMap<>();
+        List<Path> paths;
+
+        try (Stream<Path> stream = Files.walk(root)) {
+            paths = stream.filter(path -> Files.isRegularFile(path) && path.getFileName().toString().endsWith(".java")).collect(Collectors.toList());
+        }
+
+        for (Path path : paths) {
+            String name = SourceIndex.getRelativeName(root, path);
+            String pkg = name.lastIndexOf('/') < 0 ? "" : name.substring(0, name.lastIndexOf('/'));
+            packages.computeIfAbsent(pkg, k -> new TreeMap<>()).put(name, Files.size(path));
+        }
+
+        List<List<String>> shards = new ArrayList<>();
+        List<String> shard = new ArrayList<>();
+        long size = 0;
+
+        for (Map<String, Long> files : packages.values()) {
+            long packageSize = files.values().stream().mapToLong(Long::longValue).sum();
+
+            if (!shard.isEmpty() && size + packageSize > maxBytes) {
+                shards.add(shard);
+                shard = new ArrayList<>();
+                size = 0;
+            }
+
+            for (Map.Entry<String, Long> file : files.entrySet()) {
+                if (!shard.isEmpty() && size + file.getValue() > maxBytes) {
+                    shards.add(shard);
+                    shard = new ArrayList<>();
+                    size = 0;
+                }
+
+                shard.add(file.getKey());
+                size += file.getValue();
+            }
+        }
+
+        if (!shard.isEmpty()) {
+            shards.add(shard);
+        }
+
+        return shards;
+    }
+
+    /**
+     * Links, or copies where links are not supported, some files of a source tree into another directory
+     *
+     * @param root   The source root
+     * @param names  The relative names of the files
+     * @param target The directory to stage the files into
+     */
+    public static void stage(Path root, Collection<String> names, Path target) throws IOException {
+        for (String name : names) {
+            Path source = root.resolve(name);
+            Path staged = target.resolve(name);
+            Files.createDirectories(staged.getParent());
+
+            try {
+                Files.createLink(staged, source);
+            } catch (UnsupportedOperationException | IOException exception) {
+                Files.copy(source, staged);
+            }
+        }
+    }
+}
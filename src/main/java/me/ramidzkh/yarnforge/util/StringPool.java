@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import java.util.Arrays;
+
+/**
+ * A pool of strings, each identified by a dense <code>int</code> id in the order they were added. Lookups go through
+ * an open-addressed table of ids, so no boxed keys or entries are kept
+ */
+public class StringPool {
+
+    private String[] values = new String[1024];
+    private int[] slots = new int[2048];
+    private int size;
+
+    /**
+     * Adds a string to the pool, if it is not there already
+     *
+     * @param value The string
+     * @return The id of the string
+     */
+    public int intern(String value) {
+        int slot = slot(value);
+
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        values[size] = value;
+        slots[slot] = ++size;
+
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+
+        return size - 1;
+    }
+
+    /**
+     * @return The id of a string, or <code>-1</code> if it is not in the pool
+     */
+    public int find(String value) {
+        return slots[slot(value)] - 1;
+    }
+
+    public String get(int id) {
+        return values[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops the spare capacity once every string has been added
+     */
+    public void trim() {
+        values = Arrays.copyOf(values, size);
+    }
+
+    private int slot(String value) {
+        int mask = slots.length - 1;
+        int slot = mix(value.hashCode()) & mask;
+
+        while (slots[slot] != 0 && !values[slots[slot] - 1].equals(value)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+
+        for (int id = 0; id < size; id++) {
+            int slot = mix(values[id].hashCode()) & mask;
+
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
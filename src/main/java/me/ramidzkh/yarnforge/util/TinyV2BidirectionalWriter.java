@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.util;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.TinyTree;
+import org.cadixdev.bombe.type.FieldType;
+import org.cadixdev.bombe.type.MethodDescriptor;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a {@link MappingSet}, or two namespaces of a {@link TinyTree}, as Tiny v2 in both directions at once, in a
+ * single traversal. The <code>b</code> to <code>a</code> direction of a {@link MappingSet} is written as
+ * {@link MappingSet#reverse()} would produce it, without building the reversed set. Lines are streamed piece by
+ * piece, and the encoding of every descriptor is computed once
+ */
+public class TinyV2BidirectionalWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final MappingSet mappings;
+    private final Writer forward;
+    private final Writer backward;
+    private final Map<Object, String> descriptors = new IdentityHashMap<>();
+    private final Map<Object, String> deobfuscatedDescriptors = new IdentityHashMap<>();
+
+    private TinyV2BidirectionalWriter(MappingSet mappings, Writer forward, Writer backward) {
+        this.mappings = mappings;
+        this.forward = forward;
+        this.backward = backward;
+    }
+
+    /**
+     * Writes a mapping in both directions
+     *
+     * @param mappings The mappings
+     * @param a        The obfuscated namespace
+     * @param b        The de-obfuscated namespace
+     * @param aToB     The file to write the <code>a</code> to <code>b</code> direction to
+     * @param bToA     The file to write the <code>b</code> to <code>a</code> direction to
+     * @param gzip     Whether to compress both files
+     */
+    public static void write(MappingSet mappings, String a, String b, Path aToB, Path bToA, boolean gzip) throws IOException {
+        try (Writer forward = open(aToB, gzip); Writer backward = open(bToA, gzip)) {
+            new TinyV2BidirectionalWriter(mappings, forward, backward).write(a, b);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    /**
+     * Writes two namespaces of a tree in both directions
+     *
+     * @param tree The tree
+     * @param from The namespace of the tree to write as <code>a</code>
+     * @param to   The namespace of the tree to write as <code>b</code>
+     * @param a    The name of the obfuscated namespace in the files
+     * @param b    The name of the de-obfuscated namespace in the files
+     * @param aToB The file to write the <code>a</code> to <code>b</code> direction to
+     * @param bToA The file to write the <code>b</code> to <code>a</code> direction to
+     * @param gzip Whether to compress both files
+     */
+    public static void write(TinyTree tree, String from, String to, String a, String b, Path aToB, Path bToA, boolean gzip) throws IOException {
+        try (Writer forward = open(aToB, gzip); Writer backward = open(bToA, gzip)) {
+            header(forward, a, b);
+            header(backward, b, a);
+
+            for (ClassDef classDef : tree.getClasses()) {
+                String obfuscated = classDef.getName(from);
+                String deobfuscated = classDef.getName(to);
+                line(forward, "c\t", obfuscated, deobfuscated);
+                line(backward, "c\t", deobfuscated, obfuscated);
+
+                for (FieldDef fieldDef : classDef.getFields()) {
+                    member(forward, "\tf\t", fieldDef.getDescriptor(from), fieldDef.getName(from), fieldDef.getName(to));
+                    member(backward, "\tf\t", fieldDef.getDescriptor(to), fieldDef.getName(to), fieldDef.getName(from));
+                }
+
+                for (MethodDef methodDef : classDef.getMethods()) {
+                    member(forward, "\tm\t", methodDef.getDescriptor(from), methodDef.getName(from), methodDef.getName(to));
+                    member(backward, "\tm\t", methodDef.getDescriptor(to), methodDef.getName(to), methodDef.getName(from));
+                }
+            }
+        }
+    }
+
+    private static Writer open(Path path, boolean gzip) throws IOException {
+        OutputStream output = Files.newOutputStream(path);
+        output = gzip ? new GZIPOutputStream(output, BUFFER_SIZE) : new BufferedOutputStream(output, BUFFER_SIZE);
+        return new OutputStreamWriter(output, StandardCharsets.UTF_8);
+    }
+
+    private void write(String a, String b) throws IOException {
+        header(forward, a, b);
+        header(backward, b, a);
+
+        MappingBridge.iterateClasses(mappings, classMapping -> {
+            try {
+                String obfuscated = classMapping.getFullObfuscatedName();
+                String deobfuscated = classMapping.getFullDeobfuscatedName();
+                line(forward, "c\t", obfuscated, deobfuscated);
+                line(backward, "c\t", deobfuscated, obfuscated);
+
+                for (FieldMapping fieldMapping : classMapping.getFieldMappings()) {
+                    FieldType type = fieldMapping.getType().orElse(null);
+                    member(forward, "\tf\t", descriptor(type), fieldMapping.getObfuscatedName(), fieldMapping.getDeobfuscatedName());
+                    member(backward, "\tf\t", deobfuscatedDescriptor(type), fieldMapping.getDeobfuscatedName(), fieldMapping.getObfuscatedName());
+                }
+
+                for (MethodMapping methodMapping : classMapping.getMethodMappings()) {
+                    MethodDescriptor descriptor = methodMapping.getSignature().getDescriptor();
+                    member(forward, "\tm\t", descriptor(descriptor), methodMapping.getObfuscatedName(), methodMapping.getDeobfuscatedName());
+                    member(backward, "\tm\t", deobfuscatedDescriptor(descriptor), methodMapping.getDeobfuscatedName(), methodMapping.getObfuscatedName());
+                }
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        });
+    }
+
+    private static void header(Writer writer, String from, String to) throws IOException {
+        writer.write("tiny\t2\t0\t");
+        writer.write(from);
+        writer.write('\t');
+        writer.write(to);
+        writer.write('\n');
+    }
+
+    private static void line(Writer writer, String prefix, String from, String to) throws IOException {
+        writer.write(prefix);
+        writer.write(from);
+        writer.write('\t');
+        writer.write(to);
+        writer.write('\n');
+    }
+
+    private static void member(Writer writer, String prefix, String descriptor, String from, String to) throws IOException {
+        writer.write(prefix);
+        writer.write(descriptor);
+        writer.write('\t');
+        writer.write(from);
+        writer.write('\t');
+        writer.write(to);
+        writer.write('\n');
+    }
+
+    private String descriptor(Object descriptor) {
+        // Fields loaded from Tiny have no type, which has always been exported as null
+        if (descriptor == null) {
+            return "null";
+        }
+
+        return descriptors.computeIfAbsent(descriptor, Object::toString);
+    }
+
+    private String deobfuscatedDescriptor(Object descriptor) {
+        if (descriptor == null) {
+            return "null";
+        }
+
+        return deobfuscatedDescriptors.computeIfAbsent(descriptor, d -> {
+            if (d instanceof FieldType) {
+                return mappings.deobfuscate((FieldType) d).toString();
+            }
+
+            return mappings.deobfuscate((MethodDescriptor) d).toString();
+        });
+    }
+}
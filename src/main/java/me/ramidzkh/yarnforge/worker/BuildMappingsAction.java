@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.worker;
+
+import me.ramidzkh.yarnforge.util.FileCache;
+import me.ramidzkh.yarnforge.util.MappingSetSnapshot;
+import me.ramidzkh.yarnforge.util.MappingsBuilder;
+import me.ramidzkh.yarnforge.util.PhaseProfiler;
+import org.cadixdev.lorenz.MappingSet;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the mcp to yarn mappings in a worker, and writes them as a snapshot
+ */
+public abstract class BuildMappingsAction implements WorkAction<BuildMappingsAction.Parameters> {
+
+    private static final Logger LOGGER = Logging.getLogger(BuildMappingsAction.class);
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        List<File> classpath = new ArrayList<>(parameters.getClasspath().getFiles());
+        FileCache hierarchies = new FileCache(parameters.getHierarchyCache().get().getAsFile().toPath(), parameters.getHierarchyCacheSize().get());
+        PhaseProfiler profiler = new PhaseProfiler();
+
+        try {
+            MappingSet obfToMcp = MappingSetSnapshot.read(parameters.getObfToMcp().get().getAsFile().toPath());
+            Set<String> identifiers = parameters.getIdentifiers().isPresent()
+                    ? new HashSet<>(Files.readAllLines(parameters.getIdentifiers().get().getAsFile().toPath()))
+                    : null;
+            MappingSet mcpToYarn = MappingsBuilder.buildMcpToYarn(
+                    parameters.getTiny().get().getAsFile().toPath(),
+                    parameters.getNamespace().get(),
+                    classpath,
+                    obfToMcp,
+                    identifiers,
+                    hierarchies,
+                    parameters.getThreads().get(),
+                    parameters.getExports().get().getAsFile().toPath(),
+                    parameters.getDebugMappings().get(),
+                    parameters.getCompressMappings().get(),
+                    profiler
+            );
+
+            if (parameters.getOutput().isPresent()) {
+                try (PhaseProfiler.Phase ignored = profiler.start("write snapshot")) {
+                    MappingSetSnapshot.write(mcpToYarn, parameters.getOutput().get().getAsFile().toPath());
+                }
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } finally {
+            // Written even when this failed, as the report is most useful then
+            try {
+                profiler.writeFragment(parameters.getProfile().get().getAsFile().toPath());
+            } catch (IOException exception) {
+                LOGGER.warn("Failed to write the phase profile", exception);
+            }
+        }
+    }
+
+    public interface Parameters extends WorkParameters {
+
+        RegularFileProperty getTiny();
+
+        Property<String> getNamespace();
+
+        ConfigurableFileCollection getClasspath();
+
+        RegularFileProperty getObfToMcp();
+
+        RegularFileProperty getIdentifiers();
+
+        DirectoryProperty getHierarchyCache();
+
+        Property<Long> getHierarchyCacheSize();
+
+        Property<Integer> getThreads();
+
+        DirectoryProperty getExports();
+
+        Property<Boolean> getDebugMappings();
+
+        Property<Boolean> getCompressMappings();
+
+        RegularFileProperty getOutput();
+
+        RegularFileProperty getProfile();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.worker;
+
+import me.ramidzkh.yarnforge.util.ConcurrentCascadingInheritanceProvider;
+import me.ramidzkh.yarnforge.util.FileCache;
+import me.ramidzkh.yarnforge.util.HierarchyIndex;
+import me.ramidzkh.yarnforge.util.JarRemapper;
+import me.ramidzkh.yarnforge.util.MappingSetSnapshot;
+import me.ramidzkh.yarnforge.util.PhaseProfiler;
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.lorenz.MappingSet;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remaps the classes of a jar in a worker, with the mappings read from a snapshot
+ */
+public abstract class RemapJarAction implements WorkAction<RemapJarAction.Parameters> {
+
+    private static final Logger LOGGER = Logging.getLogger(RemapJarAction.class);
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        PhaseProfiler profiler = new PhaseProfiler();
+
+        try {
+            MappingSet mappings;
+
+            try (PhaseProfiler.Phase ignored = profiler.start("read snapshot")) {
+                mappings = MappingSetSnapshot.read(parameters.getMappings().get().getAsFile().toPath());
+            }
+
+            int threads = parameters.getThreads().get();
+            FileCache hierarchies = new FileCache(parameters.getHierarchyCache().get().getAsFile().toPath(), parameters.getHierarchyCacheSize().get());
+            InheritanceProvider inheritanceProvider = createInheritanceProvider(new ArrayList<>(parameters.getClasspath().getFiles()), hierarchies, threads, profiler);
+
+            remapJar(
+                    mappings,
+                    inheritanceProvider,
+                    parameters.getInput().get().getAsFile().toPath(),
+                    parameters.getOutput().get().getAsFile().toPath(),
+                    threads,
+                    profiler
+            );
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } finally {
+            // Written even when this failed, as the report is most useful then
+            try {
+                profiler.writeFragment(parameters.getProfile().get().getAsFile().toPath());
+            } catch (IOException exception) {
+                LOGGER.warn("Failed to write the phase profile", exception);
+            }
+        }
+    }
+
+    /**
+     * Indexes the hierarchy of a class path, and of the JRE
+     *
+     * @param classpath   The jar and its dependencies
+     * @param hierarchies The cache holding class hierarchies, see {@link HierarchyIndex}
+     * @param threads     The number of jars to index at once
+     * @param profiler    Records the indexing
+     * @return The inheritance provider, which is thread-safe
+     */
+    public static InheritanceProvider createInheritanceProvider(List<File> classpath, FileCache hierarchies, int threads, PhaseProfiler profiler) throws IOException {
+        try (PhaseProfiler.Phase ignored = profiler.start("index hierarchy")) {
+            return new ConcurrentCascadingInheritanceProvider()
+                    .install(HierarchyIndex.create(hierarchies, classpath, threads))
+                    .install(HierarchyIndex.createJdk(hierarchies));
+        }
+    }
+
+    /**
+     * Remaps a jar
+     *
+     * @param mappings            The mappings. Completed in place, so they must not be shared
+     * @param inheritanceProvider The hierarchy of the jar and its dependencies, to complete the mappings with inherited
+     *                            members
+     * @param input               The jar
+     * @param output              Where to write the remapped jar
+     * @param threads             The number of classes to remap at once
+     * @param profiler            Records the remapping
+     */
+    public static void remapJar(MappingSet mappings, InheritanceProvider inheritanceProvider, Path input, Path output, int threads, PhaseProfiler profiler) throws IOException {
+        LOGGER.lifecycle(":remapping " + input.getFileName());
+
+        try (PhaseProfiler.Phase ignored = profiler.start("remap jar")) {
+            int classes = JarRemapper.remap(mappings, inheritanceProvider, input, output, threads);
+            LOGGER.info("Remapped {} classes", classes);
+        }
+    }
+
+    public interface Parameters extends WorkParameters {
+
+        RegularFileProperty getMappings();
+
+        RegularFileProperty getInput();
+
+        RegularFileProperty getOutput();
+
+        ConfigurableFileCollection getClasspath();
+
+        DirectoryProperty getHierarchyCache();
+
+        Property<Long> getHierarchyCacheSize();
+
+        Property<Integer> getThreads();
+
+        RegularFileProperty getProfile();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 Ramid Khan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.ramidzkh.yarnforge.worker;
+
+import codechicken.diffpatch.util.Utils;
+import me.ramidzkh.yarnforge.patch.FilteredRewriter;
+import me.ramidzkh.yarnforge.patch.RewriteTriggers;
+import me.ramidzkh.yarnforge.patch.YarnForgeRewriter;
+import me.ramidzkh.yarnforge.util.MappingSetSnapshot;
+import me.ramidzkh.yarnforge.util.PhaseProfiler;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.mixin.MixinRemapper;
+import org.cadixdev.mercury.mixin.cleaner.MixinCleaner;
+import org.cadixdev.mercury.remapper.MercuryRemapper;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites one source tree in a worker, with a copy of the mappings read from a snapshot
+ */
+public abstract class RewriteAction implements WorkAction<RewriteAction.Parameters> {
+
+    private static final Logger LOGGER = Logging.getLogger(RewriteAction.class);
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        PhaseProfiler profiler = new PhaseProfiler();
+
+        try {
+            MappingSet mappings;
+
+            try (PhaseProfiler.Phase ignored = profiler.start("read snapshot " + parameters.getPassName().get())) {
+                mappings = MappingSetSnapshot.read(parameters.getMappings().get().getAsFile().toPath());
+            }
+
+            Path input = parameters.getInput().get().getAsFile().toPath();
+            RewriteTriggers triggers;
+
+            try (PhaseProfiler.Phase ignored = profiler.start("scan triggers " + parameters.getPassName().get())) {
+                triggers = RewriteTriggers.scan(input);
+            }
+
+            rewrite(
+                    parameters.getPassName().get(),
+                    createRemapper(mappings, parameters.getMixin().get(), triggers),
+                    input,
+                    parameters.getOutput().get().getAsFile().toPath(),
+                    parameters.getClassPath().getFiles().stream().map(File::toPath).collect(Collectors.toList()),
+                    parameters.getOptional().get(),
+                    profiler
+            );
+        } catch (RuntimeException exception) {
+            throw exception;
+        } catch (Exception exception) {
+            throw new RuntimeException(exception);
+        } finally {
+            // Written even when this failed, as the report is most useful then
+            try {
+                profiler.writeFragment(parameters.getProfile().get().getAsFile().toPath());
+            } catch (IOException exception) {
+                LOGGER.warn("Failed to write the phase profile", exception);
+            }
+        }
+    }
+
+    /**
+     * @param mappings The mappings
+     * @param mixin    Whether to remap mixins
+     * @param triggers Which files the processors can have an effect on, the rest are left to the remapper alone
+     * @return The remapper
+     */
+    public static Mercury createRemapper(MappingSet mappings, boolean mixin, RewriteTriggers triggers) {
+        Mercury mercury = new Mercury();
+
+        if (mixin && triggers.hasMixins()) {
+            mercury.getProcessors().add(new FilteredRewriter(MixinRemapper.create(mappings), triggers::hasMixin));
+            mercury.getProcessors().add(new FilteredRewriter(MixinCleaner.create(), triggers::hasMixin));
+        }
+
+        mercury.getProcessors().add(MercuryRemapper.create(mappings));
+        mercury.getProcessors().add(new FilteredRewriter(new YarnForgeRewriter(), triggers::hasOnlyIn));
+        return mercury;
+    }
+
+    /**
+     * Rewrites a source tree
+     *
+     * @param name      The name of the tree, for logging
+     * @param mercury   The remapper
+     * @param input     The source tree
+     * @param output    Where to write the rewritten tree
+     * @param classPath The class path to rewrite with
+     * @param optional  Whether failing to rewrite should only be logged
+     * @param profiler  Records the pass, and how long each file took
+     */
+    public static void rewrite(String name, Mercury mercury, Path input, Path output, List<Path> classPath, boolean optional, PhaseProfiler profiler) throws Exception {
+        mercury.getClassPath().addAll(classPath);
+        mercury.getProcessors().add(new FileTimer(name, profiler));
+        LOGGER.lifecycle(":remapping " + name);
+
+        try (PhaseProfiler.Phase ignored = profiler.start("rewrite " + name)) {
+            mercury.rewrite(input, output);
+            // An output which exists tells whoever merges shards that this one succeeded
+            Files.createDirectories(output);
+        } catch (RuntimeException ex) {
+            if (!optional) {
+                throw ex;
+            }
+
+            LOGGER.lifecycle("failed to remap " + name + "!");
+
+            try {
+                Utils.deleteFolder(output);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Runs after every other processor, and records the time since the previous file was done. Files are parsed and
+     * resolved one after another, so that is the time spent on this file, save the first file of a pass, which also
+     * pays for parsing the whole tree
+     */
+    private static class FileTimer implements SourceRewriter {
+
+        private final String pass;
+        private final PhaseProfiler profiler;
+        private long last = System.nanoTime();
+
+        FileTimer(String pass, PhaseProfiler profiler) {
+            this.pass = pass;
+            this.profiler = profiler;
+        }
+
+        @Override
+        public void rewrite(RewriteContext context) {
+            long now = System.nanoTime();
+            profiler.recordFile(pass, context.getQualifiedPrimaryType(), now - last);
+            last = now;
+        }
+    }
+
+    public interface Parameters extends WorkParameters {
+
+        Property<String> getPassName();
+
+        RegularFileProperty getMappings();
+
+        DirectoryProperty getInput();
+
+        DirectoryProperty getOutput();
+
+        ConfigurableFileCollection getClassPath();
+
+        Property<Boolean> getMixin();
+
+        Property<Boolean> getOptional();
+
+        RegularFileProperty getProfile();
+    }
+}